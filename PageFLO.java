@@ -1,131 +1,3375 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
 
 public class PageReplacementSummary {
     private static final int[] REFS = {2, 3, 2, 1, 5, 2, 4, 5, 3, 2, 5, 2};
     private static final int FRAMES = 3;
+    private static final String[] POLICIES = {"FIFO", "LRU", "OPT", "CLOCK", "LFU", "2Q", "ARC", "W-TINYLFU"};
 
-    public static void main(String[] args) {
-        int total = REFS.length;
+    public static void main(String[] args) throws IOException {
+        List<Path> traces = new ArrayList<>();
+        TraceFormat format = TraceFormat.TEXT;
+        Path convertTo = null;
+        int[] frames = null;
+        String[] policies = {"FIFO", "LRU", "OPT"};
+        boolean sweep = false;
+        boolean table = false;
+        int checks = 0;
+        String render = "text";
+        boolean classic = false;
+        Path out = null;
+        int[] refString = REFS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean curve = false;
+        int curveFrames = 0;
+        boolean bench = false;
+        String[] lengths = {"1K", "1M", "10M"};
+        String[] dists = {"UNIFORM", "ZIPF", "LOOP"};
+        int pages = 1 << 16;
+        int warmup = 3, iterations = 5;
+        boolean offHeap = false;
+        double shardsRate = 0;
+        int tau = 0, pffThreshold = 0, window = 1000;
+        Path series = null;
+        int processes = 0, quantum = 256;
+        double writeRatio = 0;
+        long length = 100_000;
+        String allocation = "BOTH";
+        List<String> gens = new ArrayList<>();
+        long seed = 42;
 
-        int fifoFaults = simulateFIFO(REFS, FRAMES);
-        int fifoHits = total - fifoFaults;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--trace": traces.add(Paths.get(args[++i])); break;
+                case "--format": format = TraceFormat.valueOf(args[++i].toUpperCase()); break;
+                case "--convert": convertTo = Paths.get(args[++i]); break;
+                case "--frames": frames = parseFrames(args[++i]); break;
+                case "--policies": policies = args[++i].toUpperCase().split(","); break;
+                case "--sweep": sweep = true; break;
+                case "--table": table = true; break;
+                case "--check":
+                    // --check [traces]: compare the policies with naive simulators on random traces
+                    checks = 1000;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) checks = Integer.parseInt(args[++i]);
+                    break;
+                case "--render": render = args[++i]; break;
+                case "--layout": classic = parseLayout(args[++i]); break;
+                case "--out": out = Paths.get(args[++i]); break;
+                case "--refs": refString = parseRefs(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--offheap": offHeap = true; break;
+                case "--shards": shardsRate = Double.parseDouble(args[++i]); break;
+                case "--ws": tau = Integer.parseInt(args[++i]); break;
+                case "--pff": pffThreshold = Integer.parseInt(args[++i]); break;
+                case "--window": window = Integer.parseInt(args[++i]); break;
+                case "--series": series = Paths.get(args[++i]); break;
+                case "--processes": processes = Integer.parseInt(args[++i]); break;
+                case "--allocation": allocation = args[++i].toUpperCase(); break;
+                case "--quantum": quantum = Integer.parseInt(args[++i]); break;
+                case "--writes": writeRatio = Double.parseDouble(args[++i]); break;
+                case "--length": length = parseCount(args[++i]); break;
+                case "--gen": gens.add(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--bench": bench = true; break;
+                case "--lengths": lengths = args[++i].split(","); break;
+                case "--dist": dists = args[++i].toUpperCase().split(","); break;
+                case "--pages": pages = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                case "--curve":
+                    // --curve [maxFrames]: faults for every frame count from one pass per policy
+                    curve = true;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) curveFrames = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Usage: PageReplacementSummary [--trace file [--format text|int32|int64|compact] [--convert out]] [--frames n] [--policies p,...] [--curve [maxFrames]]");
+                    System.err.println("       PageReplacementSummary --sweep [--trace file]... [--policies p,...] [--frames 1-64,128] [--threads n]");
+                    System.err.println("       PageReplacementSummary --bench [--lengths 1K,1M,100M] [--frames 64,4096] [--dist uniform,zipf,loop] [--pages n] [--policies p,...] [--warmup n] [--iterations n]");
+                    System.err.println("       PageReplacementSummary --shards rate [--trace file [--format f]] [--frames n] [--policies p,...]");
+                    System.err.println("       PageReplacementSummary [--ws tau] [--pff threshold] [--window n] [--series out.csv] [--trace file [--format f]]");
+                    System.err.println("       PageReplacementSummary --table [--refs 7,0,1,...] [--trace file [--format f]] [--frames n] [--policies p,...] [--render text|csv|binary|summary] [--layout fitted|classic] [--out file]");
+                    System.err.println("       PageReplacementSummary --check [traces] [--seed n]");
+                    System.err.println("       PageReplacementSummary --processes n [--trace file]... [--frames total] [--allocation global|local|both] [--quantum n] [--writes ratio] [--length n] [--dist d] [--pages n] [--threads n] [--offheap]");
+                    System.err.println("--gen spec [--length n] [--seed n] replaces --trace with generated references, e.g.");
+                    System.err.println("      zipf:pages=4096,s=0.99@1M/0.7*loop:pages=512+0.3*scan@200K (sources uniform, zipf, scan, loop)");
+                    System.err.println("--offheap keeps FIFO/LRU/CLOCK frame tables and their page indexes in direct memory (see -XX:MaxDirectMemorySize)");
+                    System.err.println("Policies: " + String.join(", ", POLICIES));
+                    System.exit(2);
+            }
+        }
+        // OPTIMAL is the long name of OPT, as PageReplacementFIFOOptimal labels it
+        String[] labels = policies.clone();
+        for (int p = 0; p < policies.length; p++) if (policies[p].equals("OPTIMAL")) policies[p] = "OPT";
+
+        if (checks > 0) {
+            runChecks(checks, seed);
+            return;
+        }
+        if (table) {
+            TraceFormat tableFormat = format;
+            boolean tableClassic = classic;
+            long tableLength = length, tableSeed = seed;
+            int[] tableRefs = refString;
+            printTables(() -> openSource(gens, tableLength, tableSeed, traces, tableFormat, tableRefs),
+                    frames == null ? FRAMES : frames[0], policies, labels, render, tableClassic, out, offHeap);
+            return;
+        }
+        if (shardsRate > 0) {
+            try (TraceReader refs = openSource(gens, length, seed, traces, format, refString)) {
+                printShardsSummary(refs, frames == null ? FRAMES : frames[0], policies, shardsRate, offHeap);
+            }
+            return;
+        }
+        if (processes > 0) {
+            printMultiProcess(traces, format, gens.isEmpty() ? List.of(benchSpec(dists[0], pages)) : gens, length, seed,
+                    processes, frames == null ? 16 * processes : frames[0], allocation, quantum, writeRatio, threads, offHeap);
+            return;
+        }
+        if (tau > 0 || pffThreshold > 0) {
+            try (TraceReader refs = openSource(gens, length, seed, traces, format, refString)) {
+                printWorkingSetSeries(refs, tau, pffThreshold, window, series);
+            }
+            return;
+        }
+        if (bench) {
+            if (!gens.isEmpty()) dists = gens.toArray(new String[0]);
+            runBench(lengths, frames == null ? new int[] {64, 4096} : frames, dists, pages, policies, warmup, iterations, offHeap);
+            return;
+        }
+        if (frames == null) frames = new int[] {FRAMES};
+        if (sweep) {
+            printSweep(traces, format, gens, length, seed, refString, policies, frames, threads, offHeap);
+            return;
+        }
+        Path trace = traces.isEmpty() ? null : traces.get(0);
+        if (convertTo != null) {
+            // --convert out: re-encode --trace, --gen or the reference string in the compact format
+            try (TraceReader in = openSource(gens, length, seed, traces, format, refString)) {
+                convert(in, convertTo);
+            }
+            return;
+        }
+        if (!gens.isEmpty()) {
+            String spec = gens.get(0);
+            long genLength = length, genSeed = seed;
+            printStreamedSummary(() -> new WorkloadGenerator(spec, genLength, genSeed), null, frames[0], policies, offHeap);
+            if (curve) {
+                System.out.println();
+                printFaultCurve(readAll(new WorkloadGenerator(gens.get(0), length, seed)), curveFrames);
+            }
+        } else if (trace == null) {
+            printSummary(refString, frames[0], policies, offHeap);
+            if (curve) {
+                System.out.println();
+                printFaultCurve(refString, curveFrames);
+            }
+        } else {
+            TraceFormat traceFormat = format;
+            printStreamedSummary(() -> openTrace(trace, traceFormat), format == TraceFormat.COMPACT ? trace : null,
+                    frames[0], policies, offHeap);
+            if (curve) {
+                // stack distances index by reference time, so the curve needs the trace in memory
+                System.out.println();
+                printFaultCurve(readAll(trace, format), curveFrames);
+            }
+        }
+    }
+
+    // A reference string such as "7,0,1,2"
+    private static int[] parseRefs(String spec) {
+        String[] parts = spec.split(",");
+        int[] refs = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) refs[i] = Integer.parseInt(parts[i].trim());
+        return refs;
+    }
+
+    // --layout fitted|classic for the text tables
+    private static boolean parseLayout(String layout) {
+        switch (layout) {
+            case "fitted": return false;
+            case "classic": return true;
+            default: throw new IllegalArgumentException("unknown table layout " + layout);
+        }
+    }
 
-        int lruFaults = simulateLRU(REFS, FRAMES);
-        int lruHits = total - lruFaults;
+    // Frame counts from a list such as "1-16,32,64"
+    private static int[] parseFrames(String spec) {
+        int[] counts = new int[8];
+        int n = 0;
+        for (String part : spec.split(",")) {
+            int dash = part.indexOf('-');
+            int from = Integer.parseInt(dash < 0 ? part : part.substring(0, dash));
+            int to = dash < 0 ? from : Integer.parseInt(part.substring(dash + 1));
+            if (from < 1) throw new IllegalArgumentException("frame count must be at least 1: " + part);
+            for (int c = from; c <= to; c++) {
+                if (n == counts.length) counts = Arrays.copyOf(counts, n * 2);
+                counts[n++] = c;
+            }
+        }
+        return Arrays.copyOf(counts, n);
+    }
 
-        int optFaults = simulateOPT(REFS, FRAMES);
-        int optHits = total - optFaults;
+    private static void printSummary(int[] refs, int frameCount, String[] policies, boolean offHeap) {
+        int total = refs.length;
+        int[] next = Arrays.asList(policies).contains("OPT") ? nextUses(refs) : null;
 
         DecimalFormat df = new DecimalFormat("#.##");
+        for (int i = 0; i < policies.length; i++) {
+            if (i > 0) System.out.println();
+            printResult(policies[i], simulate(newPolicy(policies[i], frameCount, next, offHeap), refs), total, df);
+        }
+    }
+
+    // Every policy straight off the file, one streaming pass each. OPT needs the
+    // whole future of the trace: it runs on a compact trace, whose blocks can be
+    // walked backwards to index next uses. Other sources are first copied into a
+    // temporary compact trace, so memory stays bounded as for --bench's long rows.
+    private static void printStreamedSummary(TraceOpener trace, Path compact, int frameCount, String[] policies,
+                                             boolean offHeap) throws IOException {
+        Path spilled = null;
+        try {
+            if (compact == null && Arrays.asList(policies).contains("OPT")) {
+                spilled = Files.createTempFile("refs", ".pgtz");
+                try (CompactTraceWriter writer = new CompactTraceWriter(spilled);
+                     TraceReader refs = trace.open()) {
+                    while (refs.hasNext()) writer.write(refs.nextInt());
+                }
+                compact = spilled;
+            }
+            DecimalFormat df = new DecimalFormat("#.##");
+            boolean first = true;
+            for (String policy : policies) {
+                long faults, total;
+                if (policy.equals("OPT")) {
+                    try (CompactTrace refs = new CompactTrace(compact)) {
+                        faults = simulateOPT(refs, frameCount);
+                        total = refs.size();
+                    }
+                } else {
+                    try (TraceReader refs = trace.open()) {
+                        faults = simulate(newPolicy(policy, frameCount, null, offHeap), refs);
+                        total = refs.count();
+                    }
+                }
+                if (!first) System.out.println();
+                printResult(policy, faults, total, df);
+                first = false;
+            }
+        } finally {
+            if (spilled != null) Files.deleteIfExists(spilled);
+        }
+    }
+
+    // The single reference stream a mode replays: the first --gen, else the first --trace,
+    // else the reference string (--refs or REFS)
+    private static TraceReader openSource(List<String> gens, long length, long seed, List<Path> traces,
+                                          TraceFormat format, int[] refString) throws IOException {
+        if (!gens.isEmpty()) return new WorkloadGenerator(gens.get(0), length, seed);
+        return traces.isEmpty() ? new ArrayTrace(refString) : openTrace(traces.get(0), format);
+    }
 
-        double fifoHitRatio = fifoHits * 100.0 / total;
-        double lruHitRatio = lruHits * 100.0 / total;
-        double optHitRatio = optHits * 100.0 / total;
+    private static TraceReader openTrace(Path trace, TraceFormat format) throws IOException {
+        return format == TraceFormat.COMPACT ? new CompactTrace(trace) : new MappedTrace(trace, format);
+    }
 
-        System.out.println("FIFO: faults " + fifoFaults + ", hits " + fifoHits + ", hit ratio " + df.format(fifoHitRatio) + "%");
-        System.out.println();
-        System.out.println("LRU: faults " + lruFaults + ", hits " + lruHits + ", hit ratio " + df.format(lruHitRatio) + "%");
+    private static void convert(TraceReader in, Path out) throws IOException {
+        try (CompactTraceWriter writer = new CompactTraceWriter(out)) {
+            while (in.hasNext()) writer.write(in.nextInt());
+        }
+        long bytes = Files.size(out);
+        long refs = in.count();
+        System.out.println("Wrote " + refs + " references to " + out + " (" + bytes + " bytes, "
+                + new DecimalFormat("#.##").format(refs == 0 ? 0 : bytes / (double) refs) + " bytes/ref)");
+    }
+
+    private static final int SHARDS_MODULUS = 1 << 24;
+    private static final int SHARDS_SUBSETS = 8;
+    private static final int SHARDS_MIN_PAGES = 1024;
+
+    // SHARDS (Waldspurger et al., FAST '15) with a fixed sampling rate: only pages
+    // whose hash falls below rate * 2^24 are simulated, against frames scaled by the
+    // same rate. Misses are normalized by the expected sample size rather than the
+    // actual one (SHARDS_adj), which cancels most of the skew from a few hot pages
+    // landing in or out of the sample. The sample is also split 8 ways on higher hash
+    // bits; the spread of those sub-estimates gives a standard error, reported as a
+    // ~95% interval. One streaming pass; memory grows with the sampled pages and
+    // scaled frames only. With fewer than SHARDS_MIN_PAGES distinct pages in the
+    // sample, frame scaling and the sub-estimates are too coarse for the interval
+    // to mean anything, so it is not printed and a warning names a usable rate.
+    private static void printShardsSummary(TraceReader refs, int frameCount, String[] policies,
+                                           double rate, boolean offHeap) {
+        int threshold = (int) Math.round(rate * SHARDS_MODULUS);
+        if (threshold < 1 || rate > 1) throw new IllegalArgumentException("sampling rate must be in (0, 1]");
+        int sampledFrames = Math.max(1, (int) Math.round(frameCount * rate));
+        int subsetFrames = Math.max(1, (int) Math.round(frameCount * rate / SHARDS_SUBSETS));
+
+        ReplacementPolicy[] sampled = new ReplacementPolicy[policies.length];
+        ReplacementPolicy[][] subsets = new ReplacementPolicy[policies.length][SHARDS_SUBSETS];
+        for (int p = 0; p < policies.length; p++) {
+            if (policies[p].equals("OPT")) throw new IllegalArgumentException("SHARDS sampling needs an online policy, not OPT");
+            sampled[p] = newPolicy(policies[p], sampledFrames, null, offHeap);
+            for (int k = 0; k < SHARDS_SUBSETS; k++) subsets[p][k] = newPolicy(policies[p], subsetFrames, null, offHeap);
+        }
+        long sampledRefs = 0;
+        PageIndex sampledPages = new PageIndex(16);
+        long[] sampledFaults = new long[policies.length];
+        long[] subsetRefs = new long[SHARDS_SUBSETS];
+        long[][] subsetFaults = new long[policies.length][SHARDS_SUBSETS];
+
+        while (refs.hasNext()) {
+            int page = refs.nextInt();
+            int h = mix(page);
+            if ((h & (SHARDS_MODULUS - 1)) >= threshold) continue;
+            int k = (h >>> 24) & (SHARDS_SUBSETS - 1);
+            sampledRefs++;
+            subsetRefs[k]++;
+            if (sampledPages.size() < SHARDS_MIN_PAGES && sampledPages.get(page) == -1) sampledPages.put(page, 0);
+            for (int p = 0; p < policies.length; p++) {
+                if (sampled[p].access(page)) sampledFaults[p]++;
+                if (subsets[p][k].access(page)) subsetFaults[p][k]++;
+            }
+        }
+
+        long total = refs.count();
+        double expected = Math.max(1, total * (threshold / (double) SHARDS_MODULUS));
+        boolean bounded = sampledPages.size() >= SHARDS_MIN_PAGES;
+        DecimalFormat df = new DecimalFormat("#.##");
+        for (int p = 0; p < policies.length; p++) {
+            double missRatio = Math.min(1, sampledFaults[p] / expected);
+            double sum = 0, sumSquares = 0;
+            int used = 0;
+            for (int k = 0; k < SHARDS_SUBSETS; k++) {
+                if (subsetRefs[k] == 0) continue;
+                double m = Math.min(1, subsetFaults[p][k] * SHARDS_SUBSETS / expected);
+                sum += m;
+                sumSquares += m * m;
+                used++;
+            }
+            double variance = used > 1 ? (sumSquares - sum * sum / used) / (used - 1) : 0;
+            double margin = 1.96 * Math.sqrt(Math.max(0, variance) / Math.max(1, used));
+            long faults = Math.round(missRatio * total);
+
+            if (p > 0) System.out.println();
+            if (bounded) {
+                System.out.println(policies[p] + ": faults ~" + faults + " (+/- " + Math.round(margin * total) + "), hits ~"
+                        + (total - faults) + ", hit ratio " + df.format((1 - missRatio) * 100) + "% (+/- "
+                        + df.format(margin * 100) + "%)");
+            } else {
+                System.out.println(policies[p] + ": faults ~" + faults + ", hits ~" + (total - faults)
+                        + ", hit ratio " + df.format((1 - missRatio) * 100) + "% (no bound)");
+            }
+        }
         System.out.println();
-        System.out.println("OPT: faults " + optFaults + ", hits " + optHits + ", hit ratio " + df.format(optHitRatio) + "%");
+        System.out.println("SHARDS: rate " + rate + ", " + sampledRefs + " of " + total + " references sampled, "
+                + sampledFrames + " of " + frameCount + " frames simulated");
+        if (!bounded) {
+            double needed = sampledPages.size() == 0 ? 1 : Math.min(1, rate * SHARDS_MIN_PAGES / sampledPages.size());
+            System.out.println("Warning: only " + sampledPages.size() + " distinct pages sampled (fewer than "
+                    + SHARDS_MIN_PAGES + "), the estimate is unreliable; use a rate of at least "
+                    + new DecimalFormat("#.####").format(needed) + " or replay the trace exactly");
+        }
     }
 
-    // FIFO simulation: returns number of faults
-    private static int simulateFIFO(int[] refs, int frameCount) {
-        int[] frames = new int[frameCount];
-        for (int i = 0; i < frameCount; i++) frames[i] = -1;
-        int pointer = 0, filled = 0, faults = 0;
+    // Murmur3 finalizer: spreads page numbers so hash sampling is uniform
+    private static int mix(int page) {
+        int h = page;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
 
-        for (int r : refs) {
-            if (indexOf(frames, r) == -1) {
-                faults++;
-                if (filled < frameCount) {
-                    frames[pointer] = r;
-                    pointer = (pointer + 1) % frameCount;
-                    filled++;
-                } else {
-                    frames[pointer] = r;
-                    pointer = (pointer + 1) % frameCount;
+    private static final int SERIES_RING = 4096; // time-series records buffered ahead of the writer
+
+    // Variable-allocation policies. The working set W(t, tau) (Denning) keeps exactly
+    // the pages referenced in the last tau references; page-fault frequency (Chu and
+    // Opderbeck) adds a frame on every fault and, when more than threshold references
+    // have passed since the previous fault, first releases every page not referenced
+    // since then. Each window of references yields one time-series row per policy:
+    // fault rate, resident set size and W(t, tau) size at the end of the window.
+    // Without --ws the PFF rows measure the working set with tau = threshold.
+    private static void printWorkingSetSeries(TraceReader refs, int tau, int pffThreshold, int window,
+                                              Path series) throws IOException {
+        if (window < 1) throw new IllegalArgumentException("window must be positive");
+        WorkingSet ws = new WorkingSet(tau > 0 ? tau : pffThreshold);
+        PffFrames pff = pffThreshold > 0 ? new PffFrames(pffThreshold) : null;
+        long wsFaults = 0, pffFaults = 0, wsWindowFaults = 0, pffWindowFaults = 0;
+        long wsSpaceTime = 0, pffSpaceTime = 0;
+        int wsPeak = 0, pffPeak = 0;
+        long time = 0, windowStart = 0, windows = 0;
+
+        try (SeriesRing out = series == null ? null : new SeriesRing(series, SERIES_RING, new String[] {"WS", "PFF"})) {
+            while (refs.hasNext()) {
+                int page = refs.nextInt();
+                if (ws.access(page)) wsWindowFaults++;
+                wsSpaceTime += ws.size();
+                wsPeak = Math.max(wsPeak, ws.size());
+                if (pff != null) {
+                    if (pff.access(page)) pffWindowFaults++;
+                    pffSpaceTime += pff.size();
+                    pffPeak = Math.max(pffPeak, pff.size());
+                }
+                if (++time - windowStart < window && refs.hasNext()) continue;
+
+                int length = (int) (time - windowStart);
+                if (out != null) {
+                    if (tau > 0) out.add(0, windows, time, length, (int) wsWindowFaults, ws.size(), ws.size());
+                    if (pff != null) out.add(1, windows, time, length, (int) pffWindowFaults, pff.size(), ws.size());
                 }
+                wsFaults += wsWindowFaults;
+                pffFaults += pffWindowFaults;
+                wsWindowFaults = pffWindowFaults = 0;
+                windowStart = time;
+                windows++;
             }
         }
-        return faults;
+
+        DecimalFormat df = new DecimalFormat("#.##");
+        boolean first = true;
+        if (tau > 0) {
+            printResult("WS", wsFaults, time, df);
+            System.out.println("WS: tau " + tau + ", mean resident " + df.format(time == 0 ? 0 : wsSpaceTime / (double) time)
+                    + ", peak " + wsPeak);
+            first = false;
+        }
+        if (pff != null) {
+            if (!first) System.out.println();
+            printResult("PFF", pffFaults, time, df);
+            System.out.println("PFF: threshold " + pffThreshold + ", mean resident "
+                    + df.format(time == 0 ? 0 : pffSpaceTime / (double) time) + ", peak " + pffPeak);
+        }
+        if (series != null) {
+            System.out.println();
+            System.out.println("Series: " + windows + " windows of " + window + " references written to " + series);
+        }
     }
 
-    // LRU simulation using last-used timestamps (returns faults)
-    private static int simulateLRU(int[] refs, int frameCount) {
-        int[] frames = new int[frameCount];
-        int[] lastUsed = new int[frameCount];
-        for (int i = 0; i < frameCount; i++) { frames[i] = -1; lastUsed[i] = -1; }
-        int time = 0, filled = 0, faults = 0;
+    private static void printResult(String name, long faults, long total, DecimalFormat df) {
+        long hits = total - faults;
+        double hitRatio = total == 0 ? 0 : hits * 100.0 / total;
+        System.out.println(name + ": faults " + faults + ", hits " + hits + ", hit ratio " + df.format(hitRatio) + "%");
+    }
 
-        for (int r : refs) {
-            int idx = indexOf(frames, r);
-            if (idx != -1) {
-                // hit: update timestamp
-                lastUsed[idx] = time;
-            } else {
-                // miss
-                faults++;
-                if (filled < frameCount) {
-                    int putAt = firstIndex(frames, -1);
-                    frames[putAt] = r;
-                    lastUsed[putAt] = time;
-                    filled++;
-                } else {
-                    // find LRU (smallest lastUsed)
-                    int lruIndex = 0;
-                    int minTime = lastUsed[0];
-                    for (int i = 1; i < frameCount; i++) {
-                        if (lastUsed[i] < minTime) { minTime = lastUsed[i]; lruIndex = i; }
+    // Per-reference frame tables, one per policy, then the fault totals: the verbose
+    // output of PageReplacementSimulator and PageReplacementFIFOOptimal. Rows go to
+    // out or stdout; when machine-readable rows own stdout the totals move to stderr.
+    // The trace streams once per policy and is only held in memory when OPT needs
+    // its next uses; with summary rendering the frame columns are not tracked at all.
+    private static void printTables(TraceOpener source, int frameCount, String[] policies, String[] labels,
+                                    String render, boolean classic, Path out, boolean offHeap) throws IOException {
+        int[] next = null;
+        if (Arrays.asList(policies).contains("OPT")) {
+            int[] all;
+            try (TraceReader in = source.open()) {
+                all = readAll(in);
+            }
+            next = nextUses(all);
+            source = () -> new ArrayTrace(all);
+        }
+        OutputStream rowStream = out == null ? new FileOutputStream(FileDescriptor.out) : Files.newOutputStream(out);
+        boolean rowsOnStdout = out == null && (render.equals("csv") || render.equals("binary"));
+        PrintStream summary = rowsOnStdout ? System.err : System.out;
+
+        long[] faults = new long[policies.length];
+        try (RowRenderer rows = newRenderer(render, classic, rowStream)) {
+            boolean columns = !(rows instanceof SummaryOnly);
+            for (int p = 0; p < policies.length; p++) {
+                ReplacementPolicy policy = newPolicy(policies[p], frameCount, next, offHeap);
+                FrameSlots slots = new FrameSlots(frameCount);
+                rows.begin(labels[p], frameCount);
+                try (TraceReader refs = source.open()) {
+                    while (refs.hasNext()) {
+                        int r = refs.nextInt();
+                        boolean fault = policy.access(r);
+                        if (fault) {
+                            faults[p]++;
+                            if (columns) slots.fault(policy, r);
+                        }
+                        rows.row(r, slots, fault);
+                    }
+                }
+                rows.end();
+            }
+        } finally {
+            if (out != null) rowStream.close();
+        }
+
+        int width = 0;
+        for (String label : labels) width = Math.max(width, label.length());
+        summary.println("Summary:");
+        for (int p = 0; p < policies.length; p++) {
+            StringBuilder line = new StringBuilder("Total ").append(labels[p]);
+            // classic pads the label, fitted pads the whole caption
+            if (classic) while (line.length() < width + 6) line.append(' ');
+            line.append(" page faults");
+            while (line.length() < width + 18) line.append(' ');
+            summary.println(line.append(" = ").append(faults[p]));
+        }
+    }
+
+    // Frames as a table shows them: a page keeps its column while resident and a
+    // faulting page takes over the column of the page it evicted, else the
+    // leftmost free one. Works from resident() alone, so any policy can be shown.
+    private static final class FrameSlots {
+        final int[] pages;
+        final boolean[] used;
+
+        FrameSlots(int frameCount) {
+            pages = new int[frameCount];
+            used = new boolean[frameCount];
+        }
+
+        void fault(ReplacementPolicy policy, int page) {
+            int slot = -1;
+            for (int s = 0; s < pages.length; s++) {
+                if (used[s] && !policy.resident(pages[s])) {
+                    used[s] = false;
+                    if (slot == -1) slot = s;
+                }
+            }
+            for (int s = 0; slot == -1 && s < pages.length; s++) {
+                if (!used[s]) slot = s;
+            }
+            if (slot == -1) throw new IllegalStateException("page " + page + " faulted in with every frame still resident");
+            pages[slot] = page;
+            used[slot] = true;
+        }
+    }
+
+    // Receives the per-reference rows of each simulation
+    private interface RowRenderer extends Closeable {
+        void begin(String policy, int frameCount) throws IOException;
+
+        void row(int ref, FrameSlots frames, boolean fault) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    private static RowRenderer newRenderer(String mode, boolean classic, OutputStream out) {
+        switch (mode) {
+            case "text": return new TextTable(out, classic);
+            case "csv": return new CsvRows(out);
+            case "binary": return new BinaryRows(out);
+            case "summary": return new SummaryOnly();
+            default: throw new IllegalArgumentException("unknown render mode " + mode);
+        }
+    }
+
+    // Rows assembled in a reusable char buffer and written through one large
+    // BufferedWriter: no String.format, boxing or per-row strings
+    private abstract static class CharRows implements RowRenderer {
+        final Writer out;
+        private char[] line = new char[128];
+        int length;
+
+        CharRows(OutputStream stream) {
+            out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.US_ASCII), 1 << 16);
+        }
+
+        final void append(char c) {
+            if (length == line.length) line = Arrays.copyOf(line, length * 2);
+            line[length++] = c;
+        }
+
+        final void append(String s) {
+            for (int i = 0; i < s.length(); i++) append(s.charAt(i));
+        }
+
+        // Decimal value right-aligned in width columns, like %<width>d
+        final void appendInt(int value, int width) {
+            long v = value;
+            boolean negative = v < 0;
+            if (negative) v = -v;
+            int digits = 1;
+            for (long p = 10; p <= v; p *= 10) digits++;
+            for (int i = digits + (negative ? 1 : 0); i < width; i++) append(' ');
+            if (negative) append('-');
+            int end = length + digits;
+            while (length < end) append(' ');
+            for (int i = end - 1; i >= end - digits; i--) {
+                line[i] = (char) ('0' + v % 10);
+                v /= 10;
+            }
+        }
+
+        final void appendPadded(char c, int width) {
+            for (int i = 1; i < width; i++) append(' ');
+            append(c);
+        }
+
+        final void writeLine() throws IOException {
+            out.write(line, 0, length);
+            length = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    // The verbose table: one column per frame, "-" for a free frame. The fitted
+    // layout (PageReplacementFIFOOptimal's) sizes the rule to the columns; the
+    // classic one (PageReplacementSimulator's) keeps its fixed rule and blank lines.
+    private static final class TextTable extends CharRows {
+        private final boolean classic;
+
+        TextTable(OutputStream stream, boolean classic) {
+            super(stream);
+            this.classic = classic;
+        }
+
+        @Override
+        public void begin(String policy, int frameCount) throws IOException {
+            out.write(policy + " simulation (frames left->right):\n\n");
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%4s |", "Ref"));
+            for (int i = 1; i <= frameCount; i++) sb.append(String.format(" %6s", "F" + i));
+            sb.append(String.format(" | %s\n", "Fault"));
+            int dashes = classic ? 46 : 6 * (frameCount + 1) + 7;
+            for (int i = 0; i < dashes; i++) sb.append('-');
+            out.write(sb.append('\n').toString());
+        }
+
+        @Override
+        public void row(int ref, FrameSlots frames, boolean fault) throws IOException {
+            appendInt(ref, 4);
+            append(" |");
+            for (int i = 0; i < frames.pages.length; i++) {
+                append(' ');
+                if (frames.used[i]) appendInt(frames.pages[i], 6); else appendPadded('-', 6);
+            }
+            append(fault ? " | Yes\n" : " | No\n");
+            writeLine();
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.write(classic ? "\n\n" : "\n");
+        }
+    }
+
+    // policy,ref,F1..Fn,fault rows for spreadsheets and scripts
+    private static final class CsvRows extends CharRows {
+        private boolean headerWritten = false;
+        private String policy;
+
+        CsvRows(OutputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        public void begin(String policy, int frameCount) throws IOException {
+            this.policy = policy;
+            if (headerWritten) return;
+            append("policy,ref");
+            for (int i = 1; i <= frameCount; i++) {
+                append(",F");
+                appendInt(i, 0);
+            }
+            append(",fault\n");
+            writeLine();
+            headerWritten = true;
+        }
+
+        @Override
+        public void row(int ref, FrameSlots frames, boolean fault) throws IOException {
+            append(policy);
+            append(',');
+            appendInt(ref, 0);
+            for (int i = 0; i < frames.pages.length; i++) {
+                append(',');
+                if (frames.used[i]) appendInt(frames.pages[i], 0); else append('-');
+            }
+            append(fault ? ",Yes\n" : ",No\n");
+            writeLine();
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    // Binary stream: per table a 0 tag, policy (UTF) and frame count; per row a
+    // 1 tag, ref, fault flag and per frame an occupied flag and its page; a 2 tag
+    // ends a table
+    private static final class BinaryRows implements RowRenderer {
+        private final DataOutputStream out;
+
+        BinaryRows(OutputStream stream) {
+            out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        }
+
+        @Override
+        public void begin(String policy, int frameCount) throws IOException {
+            out.writeByte(0);
+            out.writeUTF(policy);
+            out.writeInt(frameCount);
+        }
+
+        @Override
+        public void row(int ref, FrameSlots frames, boolean fault) throws IOException {
+            out.writeByte(1);
+            out.writeInt(ref);
+            out.writeBoolean(fault);
+            for (int i = 0; i < frames.pages.length; i++) {
+                out.writeBoolean(frames.used[i]);
+                out.writeInt(frames.pages[i]);
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.writeByte(2);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    // Summary-only: rows are dropped, so simulations run at full speed
+    private static final class SummaryOnly implements RowRenderer {
+        @Override
+        public void begin(String policy, int frameCount) {
+        }
+
+        @Override
+        public void row(int ref, FrameSlots frames, boolean fault) {
+        }
+
+        @Override
+        public void end() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final String[] CHECKED = {"FIFO", "LRU", "OPT"};
+
+    // --check: replays seeded random traces through the checked policies, on heap
+    // and off heap, and compares every fault and every frame column with a naive
+    // simulation. Pages come from small pools around -1, 0 and the int extremes,
+    // values an empty-frame marker could be mistaken for.
+    private static void runChecks(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int t = 0; t < count; t++) {
+            int[] refs = randomTrace(random);
+            boolean[] writes = new boolean[refs.length];
+            for (int i = 0; i < writes.length; i++) writes[i] = random.nextInt(4) == 0;
+            int frameCount = 1 + random.nextInt(12);
+            for (String policy : CHECKED) {
+                for (boolean offHeap : new boolean[] {false, true}) {
+                    String failure = check(policy, refs, writes, frameCount, offHeap);
+                    if (failure != null) {
+                        throw new IllegalStateException(policy + (offHeap ? " (off heap)" : "") + ", " + frameCount
+                                + " frames, trace " + t + " of seed " + seed + ": " + failure + "\n" + Arrays.toString(refs));
                     }
-                    frames[lruIndex] = r;
-                    lastUsed[lruIndex] = time;
                 }
             }
+            String failure = checkCurve(refs);
+            if (failure != null) {
+                throw new IllegalStateException("fault curve, trace " + t + " of seed " + seed + ": " + failure
+                        + "\n" + Arrays.toString(refs));
+            }
+        }
+        System.out.println("Checked " + count + " random traces (seed " + seed + "): "
+                + String.join(", ", CHECKED) + ", FIFO/LRU writebacks and the fault curve agree with the naive simulators");
+    }
+
+    // The one-pass LRU and OPT curves against a replay per frame count, or null
+    private static String checkCurve(int[] refs) {
+        long[] lru = faultCurve(lruStackHistogram(refs), 16);
+        long[] opt = faultCurve(optStackHistogram(refs), 16);
+        for (int c = 1; c <= 16; c++) {
+            int lruFaults = simulateLRU(refs, c), optFaults = simulateOPT(refs, c);
+            if (lru[c] != lruFaults) return c + " frames: LRU curve " + lru[c] + ", replay " + lruFaults;
+            if (opt[c] != optFaults) return c + " frames: OPT curve " + opt[c] + ", replay " + optFaults;
+        }
+        return null;
+    }
+
+    private static int[] randomTrace(SplittableRandom random) {
+        int[] pool = new int[1 + random.nextInt(16)];
+        for (int i = 0; i < pool.length; i++) {
+            switch (random.nextInt(4)) {
+                case 0: pool[i] = -1 - random.nextInt(3) + random.nextInt(3); break;
+                case 1: pool[i] = random.nextBoolean() ? Integer.MIN_VALUE + random.nextInt(2) : Integer.MAX_VALUE - random.nextInt(2); break;
+                case 2: pool[i] = random.nextInt(); break;
+                default: pool[i] = random.nextInt(10); break;
+            }
+        }
+        int[] refs = new int[random.nextInt(400)];
+        for (int i = 0; i < refs.length; i++) {
+            // skewed towards the front of the pool so there are hits to get wrong
+            refs[i] = pool[Math.min(random.nextInt(pool.length), random.nextInt(pool.length))];
+        }
+        return refs;
+    }
+
+    // First divergence between policy and NaiveFrames on refs, or null. OPT does
+    // not model writes, so writebacks are only compared for FIFO and LRU.
+    private static String check(String policy, int[] refs, boolean[] writes, int frameCount, boolean offHeap) {
+        ReplacementPolicy real = newPolicy(policy, frameCount, nextUses(refs), offHeap);
+        FrameSlots slots = new FrameSlots(frameCount);
+        NaiveFrames naive = new NaiveFrames(policy, frameCount, refs);
+        boolean dirtyPages = !policy.equals("OPT");
+        for (int t = 0; t < refs.length; t++) {
+            boolean fault = real.access(refs[t], writes[t]);
+            if (fault) slots.fault(real, refs[t]);
+            boolean expected = naive.access(refs[t], writes[t]);
+            if (fault != expected) return "reference " + t + " (page " + refs[t] + ") " + (fault ? "faulted" : "hit");
+            if (!Arrays.equals(slots.used, naive.used)) return "reference " + t + ": frames in use differ";
+            for (int s = 0; s < frameCount; s++) {
+                if (slots.used[s] && slots.pages[s] != naive.pages[s]) {
+                    return "reference " + t + ": frame " + (s + 1) + " holds " + slots.pages[s] + ", expected " + naive.pages[s];
+                }
+            }
+            if (dirtyPages && real.writebacks() != naive.writebacks) {
+                return "reference " + t + ": " + real.writebacks() + " writebacks, expected " + naive.writebacks;
+            }
+        }
+        return null;
+    }
+
+    // Reference model for --check: frames as plain columns with a timestamp each,
+    // the victim found by scanning them. For OPT the stamp is the next use, found
+    // by scanning the rest of the trace, negated so the farthest is the smallest.
+    private static final class NaiveFrames {
+        final int[] pages;
+        final boolean[] used;
+        private final boolean[] dirty;
+        private final long[] stamp; // FIFO: time loaded, LRU: time last used, OPT: -next use
+        private final boolean lru, opt;
+        private final int[] refs;
+        private int time = 0;
+        long writebacks = 0;
+
+        NaiveFrames(String policy, int frameCount, int[] refs) {
+            pages = new int[frameCount];
+            used = new boolean[frameCount];
+            dirty = new boolean[frameCount];
+            stamp = new long[frameCount];
+            lru = policy.equals("LRU");
+            opt = policy.equals("OPT");
+            this.refs = refs;
+        }
+
+        boolean access(int page, boolean write) {
             time++;
+            if (opt) {
+                for (int s = 0; s < pages.length; s++) {
+                    if (!used[s]) continue;
+                    int next = time;
+                    while (next < refs.length && refs[next] != pages[s]) next++;
+                    stamp[s] = -next;
+                }
+            }
+            for (int s = 0; s < pages.length; s++) {
+                if (used[s] && pages[s] == page) {
+                    if (lru) stamp[s] = time;
+                    dirty[s] |= write;
+                    return false;
+                }
+            }
+            int victim = -1;
+            for (int s = 0; s < pages.length && victim == -1; s++) {
+                if (!used[s]) victim = s;
+            }
+            if (victim == -1) {
+                victim = 0;
+                for (int s = 1; s < pages.length; s++) {
+                    if (stamp[s] < stamp[victim]) victim = s;
+                }
+                if (dirty[victim]) writebacks++;
+            }
+            pages[victim] = page;
+            used[victim] = true;
+            dirty[victim] = write;
+            stamp[victim] = time;
+            return true;
         }
-        return faults;
     }
 
-    // OPTIMAL simulation: looks ahead to choose victim (returns faults)
-    private static int simulateOPT(int[] refs, int frameCount) {
-        int[] frames = new int[frameCount];
-        for (int i = 0; i < frameCount; i++) frames[i] = -1;
-        int filled = 0, faults = 0;
-
-        for (int current = 0; current < refs.length; current++) {
-            int r = refs[current];
-            if (indexOf(frames, r) == -1) {
-                faults++;
-                if (filled < frameCount) {
-                    int putAt = firstIndex(frames, -1);
-                    frames[putAt] = r;
-                    filled++;
+    // Materialize a trace file for the algorithms that need random access
+    private static int[] readAll(Path trace, TraceFormat format) throws IOException {
+        try (TraceReader in = openTrace(trace, format)) {
+            return readAll(in);
+        }
+    }
+
+    private static int[] readAll(PrimitiveIterator.OfInt in) {
+        int[] refs = new int[1024];
+        int n = 0;
+        while (in.hasNext()) {
+            if (n == refs.length) refs = Arrays.copyOf(refs, Math.multiplyExact(n, 2));
+            refs[n++] = in.nextInt();
+        }
+        return Arrays.copyOf(refs, n);
+    }
+
+    // Run every (trace, policy, frame count) cell on a ForkJoinPool. Traces and
+    // their next-use indexes are loaded once and shared read-only by all workers;
+    // each cell owns only its primitive frame table. Generated traces are not
+    // loaded at all: every cell replays its own generator, unless OPT needs the
+    // whole stream for its next-use index.
+    private static void printSweep(List<Path> paths, TraceFormat format, List<String> gens, long length, long seed,
+                                   int[] refString, String[] policies, int[] frameCounts, int threads,
+                                   boolean offHeap) throws IOException {
+        boolean opt = Arrays.asList(policies).contains("OPT");
+        int traceCount = paths.isEmpty() && gens.isEmpty() ? 1 : paths.size() + gens.size();
+        String[] names = new String[traceCount];
+        int[][] traces = new int[traceCount][];
+        long[] totals = new long[traceCount];
+        int[][] nextUses = new int[traceCount][];
+        for (int t = 0; t < traceCount; t++) {
+            if (t >= paths.size() && !gens.isEmpty()) {
+                names[t] = gens.get(t - paths.size());
+                if (opt) traces[t] = readAll(new WorkloadGenerator(names[t], length, seed));
+                totals[t] = length;
+                continue;
+            }
+            names[t] = paths.isEmpty() ? "REFS" : paths.get(t).getFileName().toString();
+            traces[t] = paths.isEmpty() ? refString : readAll(paths.get(t), format);
+            totals[t] = traces[t].length;
+        }
+        for (String policy : policies) newPolicy(policy, 1, new int[0], false); // reject unknown names up front
+
+        int perTrace = policies.length * frameCounts.length;
+        long[] faults = new long[traceCount * perTrace];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            if (opt) {
+                pool.invoke(new ParallelFor(0, traceCount, t -> nextUses[t] = nextUses(traces[t])));
+            }
+            pool.invoke(new ParallelFor(0, faults.length, cell -> {
+                int t = cell / perTrace;
+                String policy = policies[cell % perTrace / frameCounts.length];
+                int frames = frameCounts[cell % frameCounts.length];
+                ReplacementPolicy replay = newPolicy(policy, frames, nextUses[t], offHeap);
+                faults[cell] = traces[t] != null ? simulate(replay, traces[t])
+                        : simulate(replay, new WorkloadGenerator(names[t], length, seed));
+            }));
+        } finally {
+            pool.shutdown();
+        }
+
+        DecimalFormat df = new DecimalFormat("#.##");
+        for (int cell = 0; cell < faults.length; cell++) {
+            int t = cell / perTrace;
+            if (cell > 0) System.out.println();
+            printResult(names[t] + " " + policies[cell % perTrace / frameCounts.length] + " frames "
+                    + frameCounts[cell % frameCounts.length], faults[cell], totals[t], df);
+        }
+    }
+
+    // Fork-join loop over [from, to): halves until single indexes so idle workers
+    // can steal the unevenly sized sweep cells
+    private static final class ParallelFor extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        private final IntConsumer body;
+
+        ParallelFor(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) body.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ParallelFor(from, mid, body), new ParallelFor(mid, to, body));
+        }
+    }
+
+    // N processes replayed at once against one pool of frames. Global replacement
+    // runs a single lock-free CLOCK over the whole pool, so a process faulting can
+    // take a frame from any other; local replacement gives each process a private
+    // CLOCK over an equal share. Processes advance in rounds of quantum references,
+    // which bounds how far any one of them can run ahead of the rest. With trace
+    // files, process p replays file p modulo their count; otherwise it replays
+    // generator spec p modulo their count, seeded with seed + p.
+    private static void printMultiProcess(List<Path> paths, TraceFormat format, List<String> specs, long length,
+                                          long seed, int processes, int frames, String allocation,
+                                          int quantum, double writeRatio, int threads, boolean offHeap) throws IOException {
+        if (!allocation.matches("GLOBAL|LOCAL|BOTH")) throw new IllegalArgumentException("allocation must be global, local or both");
+        boolean global = !allocation.equals("LOCAL"), local = !allocation.equals("GLOBAL");
+        if (processes < 1 || frames < 1) throw new IllegalArgumentException("need at least one process and one frame");
+        if (local && frames < processes) throw new IllegalArgumentException("local allocation needs a frame per process");
+        if (writeRatio < 0 || writeRatio > 1) throw new IllegalArgumentException("write ratio must be in [0, 1]");
+        ThreadFactory virtual = virtualThreads();
+        System.out.println("Processes: " + processes + ", frames " + frames + ", CLOCK, quantum " + quantum + ", "
+                + (virtual != null ? "virtual threads" : "fork-join pool of " + threads));
+
+        long[] references = new long[processes];
+        long[] globalFaults = global ? new long[processes] : null;
+        long[] localFaults = local ? new long[processes] : null;
+        long[] writebacks = local ? new long[processes] : null;
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 0 ? !global : !local) continue;
+            GlobalClock clock = pass == 0 ? new GlobalClock(frames, processes) : null;
+            SimProcess[] procs = new SimProcess[processes];
+            try {
+                for (int p = 0; p < processes; p++) {
+                    int quota = frames / processes + (p < frames % processes ? 1 : 0);
+                    TraceReader refs = paths.isEmpty() ? new WorkloadGenerator(specs.get(p % specs.size()), length, seed + p)
+                            : openTrace(paths.get(p % paths.size()), format);
+                    procs[p] = new SimProcess(p, refs, clock,
+                            pass == 0 ? null : new ClockFrames(newFrameTable(quota, offHeap), p), writeRatio, seed);
+                }
+                runProcesses(procs, virtual, threads, quantum);
+            } finally {
+                for (SimProcess proc : procs) if (proc != null) proc.refs.close();
+            }
+            for (int p = 0; p < processes; p++) {
+                references[p] = procs[p].references;
+                (pass == 0 ? globalFaults : localFaults)[p] = procs[p].faults;
+                if (pass == 1) writebacks[p] = procs[p].local.writebacks();
+            }
+        }
+
+        DecimalFormat df = new DecimalFormat("#.##");
+        long total = 0;
+        for (long r : references) total += r;
+        System.out.println();
+        if (global) printResult("GLOBAL", sum(globalFaults), total, df);
+        if (local) printResult("LOCAL", sum(localFaults), total, df);
+        if (local && writeRatio > 0) System.out.println("LOCAL: writebacks " + sum(writebacks));
+        System.out.println();
+        for (int p = 0; p < processes; p++) {
+            String name = paths.isEmpty() ? "P" + p : "P" + p + " " + paths.get(p % paths.size()).getFileName();
+            System.out.println(name + ": references " + references[p]
+                    + (global ? ", global faults " + globalFaults[p] : "")
+                    + (local ? ", local faults " + localFaults[p] + " (" + (frames / processes
+                            + (p < frames % processes ? 1 : 0)) + " frames)" : "")
+                    + (local && writeRatio > 0 ? ", writebacks " + writebacks[p] : ""));
+        }
+    }
+
+    private static long sum(long[] values) {
+        long s = 0;
+        for (long v : values) s += v;
+        return s;
+    }
+
+    // Drive every process in rounds: one virtual thread per process meeting at a
+    // phaser after each quantum where the runtime has them, otherwise one
+    // fork-join loop over all processes per round
+    private static void runProcesses(SimProcess[] procs, ThreadFactory virtual, int threads, int quantum) {
+        if (virtual != null) {
+            Phaser root = new Phaser();
+            Phaser tier = null;
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] workers = new Thread[procs.length];
+            for (int p = 0; p < procs.length; p++) {
+                if (p % 256 == 0) tier = new Phaser(root); // a phaser holds at most 65535 parties
+                tier.register();
+                Phaser rounds = tier;
+                SimProcess proc = procs[p];
+                workers[p] = virtual.newThread(() -> {
+                    try {
+                        while (proc.step(quantum)) rounds.arriveAndAwaitAdvance();
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        rounds.arriveAndDeregister();
+                    }
+                });
+            }
+            for (Thread worker : workers) worker.start();
+            try {
+                for (Thread worker : workers) worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while replaying processes", e);
+            }
+            if (failure.get() instanceof RuntimeException) throw (RuntimeException) failure.get();
+            if (failure.get() != null) throw new IllegalStateException(failure.get());
+            return;
+        }
+        boolean[] running = new boolean[procs.length];
+        Arrays.fill(running, true);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (boolean more = true; more; ) {
+                pool.invoke(new ParallelFor(0, procs.length, p -> {
+                    if (running[p]) running[p] = procs[p].step(quantum);
+                }));
+                more = false;
+                for (boolean r : running) more |= r;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Thread.ofVirtual().factory() on Java 21 and later, where virtual threads are
+    // final; null before that (Java 17 has none, 19 and 20 only as a preview), and
+    // the fork-join pool drives the processes instead. Looked up reflectively so the
+    // file still compiles on Java 17.
+    private static ThreadFactory virtualThreads() {
+        if (Runtime.version().feature() < 21) return null;
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual threads unavailable on Java " + Runtime.version(), e);
+        }
+    }
+
+    private static volatile long benchSink; // keeps replay results observable to the JIT
+
+    // Throughput and allocation benchmark: for every (policy, distribution, trace
+    // length, frame count) run warmup rounds, then report mean references/sec with
+    // its standard deviation and bytes allocated per reference on the replay thread.
+    // Trace generation happens outside the timed region; OPT includes its index build.
+    // Lengths above BENCH_MATERIALIZE are generated into a temporary compact trace
+    // first and replayed from it; those rows are starred since they include decoding.
+    // One JVM and no fork isolation, so this is a quick look: compare changes with
+    // the JMH module in bench/, which calls benchTrace and benchReplay.
+    private static void runBench(String[] lengths, int[] frameCounts, String[] dists, int pages,
+                                 String[] policies, int warmup, int iterations, boolean offHeap) throws IOException {
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long thread = Thread.currentThread().getId();
+        DecimalFormat df = new DecimalFormat("#,##0.##");
+
+        System.out.printf("%-10s %-8s %11s %8s | %16s %12s %10s\n",
+                "Policy", "Dist", "Length", "Frames", "refs/sec", "+/- stdev", "B/ref");
+        System.out.println("-------------------------------------------------------------------------------------");
+        boolean compacted = false;
+        for (String dist : dists) {
+            for (String length : lengths) {
+                long count = parseCount(length);
+                int[] refs = null;
+                Path trace = null;
+                if (count <= BENCH_MATERIALIZE) {
+                    refs = benchTrace(dist, (int) count, pages, 42);
                 } else {
-                    int evictIndex = -1;
-                    int farthestNext = -1;
-                    for (int i = 0; i < frameCount; i++) {
-                        int page = frames[i];
-                        int nextUse = Integer.MAX_VALUE;
-                        for (int k = current + 1; k < refs.length; k++) {
-                            if (refs[k] == page) { nextUse = k; break; }
+                    // too large for an int[]: generate into a compact trace before
+                    // timing, so the rates exclude generation and OPT can still run
+                    trace = Files.createTempFile("bench", ".trace");
+                    try (CompactTraceWriter writer = new CompactTraceWriter(trace);
+                         WorkloadGenerator gen = new WorkloadGenerator(benchSpec(dist, pages), count, 42)) {
+                        while (gen.hasNext()) writer.write(gen.nextInt());
+                    }
+                    compacted = true;
+                }
+                try {
+                    for (int frames : frameCounts) {
+                        for (String policy : policies) {
+                            for (int i = 0; i < warmup; i++) benchSink += benchReplay(policy, refs, trace, frames, offHeap);
+                            double[] rates = new double[iterations];
+                            long allocated = 0;
+                            for (int i = 0; i < iterations; i++) {
+                                long bytes = allocation == null ? 0 : allocation.getThreadAllocatedBytes(thread);
+                                long start = System.nanoTime();
+                                benchSink += benchReplay(policy, refs, trace, frames, offHeap);
+                                long elapsed = Math.max(1, System.nanoTime() - start);
+                                if (allocation != null) allocated += allocation.getThreadAllocatedBytes(thread) - bytes;
+                                rates[i] = count * 1e9 / elapsed;
+                            }
+                            double mean = 0, variance = 0;
+                            for (double r : rates) mean += r / iterations;
+                            for (double r : rates) variance += (r - mean) * (r - mean) / Math.max(1, iterations - 1);
+                            String perRef = allocation == null ? "n/a"
+                                    : df.format(allocated / (double) iterations / Math.max(1, count));
+                            System.out.printf("%-10s %-8s %11s %8d | %16s %12s %10s%s\n", policy, dist, length, frames,
+                                    df.format(mean), df.format(Math.sqrt(variance)), perRef, trace == null ? "" : " *");
                         }
-                        if (nextUse > farthestNext) { farthestNext = nextUse; evictIndex = i; }
                     }
-                    frames[evictIndex] = r;
+                } finally {
+                    if (trace != null) Files.deleteIfExists(trace);
                 }
             }
         }
-        return faults;
+        if (compacted) {
+            System.out.println();
+            System.out.println("* replayed from a compact trace on disk (longer than " + BENCH_MATERIALIZE
+                    + " references): rates include block decoding and are not directly comparable to in-memory rows");
+        }
     }
 
-    private static int indexOf(int[] arr, int val) {
-        for (int i = 0; i < arr.length; i++) if (arr[i] == val) return i;
-        return -1;
-    }
+    private static final long BENCH_MATERIALIZE = 1 << 26;
 
-    private static int firstIndex(int[] arr, int val) {
-        for (int i = 0; i < arr.length; i++) if (arr[i] == val) return i;
-        return -1;
+    // One timed replay: in-memory trace, or a compact trace file when refs is null
+    static long benchReplay(String policy, int[] refs, Path trace, int frames, boolean offHeap) throws IOException {
+        if (refs != null) {
+            return policy.equals("OPT") ? simulateOPT(refs, frames) : simulate(newPolicy(policy, frames, null, offHeap), refs);
+        }
+        try (CompactTrace in = new CompactTrace(trace)) {
+            return policy.equals("OPT") ? simulateOPT(in, frames) : simulate(newPolicy(policy, frames, null, offHeap), in);
+        }
+    }
+
+    // Counts such as "1000", "64K", "100M"
+    private static long parseCount(String spec) {
+        char unit = Character.toUpperCase(spec.charAt(spec.length() - 1));
+        long scale = unit == 'K' ? 1_000L : unit == 'M' ? 1_000_000L : unit == 'G' ? 1_000_000_000L : 1;
+        return Long.parseLong(scale == 1 ? spec : spec.substring(0, spec.length() - 1)) * scale;
+    }
+
+    // Seeded benchmark trace over pages distinct page numbers: UNIFORM random,
+    // ZIPF (s = 1), LOOP cyclic scan, or any generator spec
+    static int[] benchTrace(String dist, int length, int pages, long seed) {
+        int[] refs = new int[length];
+        WorkloadGenerator gen = new WorkloadGenerator(benchSpec(dist, pages), length, seed);
+        for (int i = 0; i < length; i++) refs[i] = gen.nextInt();
+        return refs;
+    }
+
+    // A --dist name as a generator spec over pages pages; full specs pass through
+    private static String benchSpec(String dist, int pages) {
+        return dist.indexOf(':') >= 0 ? dist : dist.toLowerCase() + ":pages=" + pages;
+    }
+
+    // Print LRU and OPT faults/hit ratio for frame counts 1..maxFrames
+    // (0 = up to the number of distinct pages, beyond which nothing changes)
+    private static void printFaultCurve(int[] refs, int maxFrames) {
+        if (refs.length == 0) {
+            System.out.println("Fault curve: trace has no references");
+            return;
+        }
+        long[] lru = lruStackHistogram(refs);
+        long[] opt = optStackHistogram(refs);
+        if (maxFrames <= 0) maxFrames = lru.length - 1;
+        long[] lruFaults = faultCurve(lru, maxFrames);
+        long[] optFaults = faultCurve(opt, maxFrames);
+
+        DecimalFormat df = new DecimalFormat("#.##");
+        int total = refs.length;
+        System.out.println("Fault curve (stack distance, one pass):");
+        System.out.printf("%8s | %10s %10s | %10s %10s\n", "Frames", "LRU faults", "LRU hit %", "OPT faults", "OPT hit %");
+        System.out.println("------------------------------------------------------------");
+        for (int c = 1; c <= maxFrames; c++) {
+            System.out.printf("%8d | %10d %10s | %10d %10s\n", c,
+                    lruFaults[c], df.format((total - lruFaults[c]) * 100.0 / total),
+                    optFaults[c], df.format((total - optFaults[c]) * 100.0 / total));
+        }
+    }
+
+    // faults[c] for c = 1..maxFrames from a stack-distance histogram: a reference
+    // at depth d hits in every cache of at least d frames, hist[0] are cold misses
+    private static long[] faultCurve(long[] hist, int maxFrames) {
+        long[] faults = new long[maxFrames + 1];
+        long misses = hist[0];
+        for (int d = hist.length - 1; d > maxFrames; d--) misses += hist[d];
+        for (int c = maxFrames; c >= 1; c--) {
+            faults[c] = misses;
+            if (c < hist.length) misses += hist[c];
+        }
+        return faults;
+    }
+
+    // Mattson LRU stack distances in one pass. A Fenwick tree over reference times
+    // marks the latest reference of every page; the depth of a re-reference is the
+    // number of marks since that page's previous reference. Length = distinct pages + 1.
+    private static long[] lruStackHistogram(int[] refs) {
+        int[] tree = new int[refs.length + 1];
+        PageIndex last = new PageIndex(16);
+        long[] hist = new long[16];
+
+        for (int t = 0; t < refs.length; t++) {
+            int prev = last.get(refs[t]);
+            if (prev == -1) {
+                hist[0]++;
+            } else {
+                int depth = fenwickSum(tree, t) - fenwickSum(tree, prev);
+                if (depth >= hist.length) hist = Arrays.copyOf(hist, Math.max(depth + 1, hist.length * 2));
+                hist[depth]++;
+                fenwickAdd(tree, prev, -1);
+            }
+            fenwickAdd(tree, t, 1);
+            last.put(refs[t], t);
+        }
+        return Arrays.copyOf(hist, last.size() + 1);
+    }
+
+    // Mattson OPT stack: each level keeps whichever candidate is referenced sooner
+    // and carries the other down until it fills the referenced page's old level.
+    // One pass, but an update costs O(depth) rather than O(log n).
+    private static long[] optStackHistogram(int[] refs) {
+        int[] next = nextUses(refs);
+        int[] stack = new int[16];
+        int[] stackNext = new int[16];
+        long[] hist = new long[17];
+        int size = 0;
+
+        for (int t = 0; t < refs.length; t++) {
+            int page = refs[t];
+            if (size > 0 && stack[0] == page) {
+                stackNext[0] = next[t];
+                hist[1]++;
+                continue;
+            }
+            int carried = size > 0 ? stack[0] : page, carriedNext = size > 0 ? stackNext[0] : next[t];
+            int depth = 0;
+            if (size > 0) {
+                stack[0] = page;
+                stackNext[0] = next[t];
+                for (int i = 1; i < size; i++) {
+                    if (stack[i] == page) {
+                        stack[i] = carried;
+                        stackNext[i] = carriedNext;
+                        depth = i + 1;
+                        break;
+                    }
+                    if (stackNext[i] > carriedNext) {
+                        int p = stack[i], n = stackNext[i];
+                        stack[i] = carried;
+                        stackNext[i] = carriedNext;
+                        carried = p;
+                        carriedNext = n;
+                    }
+                }
+            }
+            if (depth == 0) {
+                // cold miss: the stack grows by the page pushed off the bottom
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, size * 2);
+                    stackNext = Arrays.copyOf(stackNext, size * 2);
+                    hist = Arrays.copyOf(hist, size * 2 + 1);
+                }
+                stack[size] = carried;
+                stackNext[size] = carriedNext;
+                size++;
+                hist[0]++;
+            } else {
+                hist[depth]++;
+            }
+        }
+        return Arrays.copyOf(hist, size + 1);
+    }
+
+    // Fenwick tree: sum of positions [0, end)
+    private static int fenwickSum(int[] tree, int end) {
+        int sum = 0;
+        for (int i = end; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    private static void fenwickAdd(int[] tree, int pos, int delta) {
+        for (int i = pos + 1; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    // Policy by name; OPT replays against the next-use index of the same trace
+    // FIFO, LRU and CLOCK keep their frames in a FrameTable, off-heap on request
+    private static ReplacementPolicy newPolicy(String name, int frameCount, int[] nextUses, boolean offHeap) {
+        switch (name) {
+            case "FIFO": return new FifoFrames(newFrameTable(frameCount, offHeap));
+            case "LRU": return new LruFrames(newFrameTable(frameCount, offHeap));
+            case "OPT":
+                if (nextUses == null) throw new IllegalArgumentException("OPT needs the whole trace to index next uses");
+                return new OptFrames(frameCount, nextUses);
+            case "CLOCK": return new ClockFrames(newFrameTable(frameCount, offHeap));
+            case "LFU": return new LfuFrames(frameCount);
+            case "2Q": return new TwoQueueFrames(frameCount);
+            case "ARC": return new ArcFrames(frameCount);
+            case "W-TINYLFU": return new WTinyLfuFrames(frameCount);
+            default: throw new IllegalArgumentException("unknown policy " + name + " (known: " + String.join(", ", POLICIES) + ")");
+        }
+    }
+
+    // Replay a trace through a policy, return total faults
+    private static int simulate(ReplacementPolicy policy, int[] refs) {
+        int faults = 0;
+        for (int r : refs) {
+            if (policy.access(r)) faults++;
+        }
+        return faults;
+    }
+
+    // Replay a streamed trace, constant memory in the trace length
+    private static long simulate(ReplacementPolicy policy, PrimitiveIterator.OfInt refs) {
+        long faults = 0;
+        while (refs.hasNext()) {
+            if (policy.access(refs.nextInt())) faults++;
+        }
+        return faults;
+    }
+
+    // FIFO simulation: returns number of faults
+    private static int simulateFIFO(int[] refs, int frameCount) {
+        return simulate(new FifoFrames(new HeapFrameTable(frameCount)), refs);
+    }
+
+    // LRU simulation over an O(1) hash-indexed recency list (returns faults)
+    private static int simulateLRU(int[] refs, int frameCount) {
+        return simulate(new LruFrames(new HeapFrameTable(frameCount)), refs);
+    }
+
+    // OPTIMAL simulation: next uses precomputed in one backward pass,
+    // victims taken from a max-heap on next use (returns faults)
+    private static int simulateOPT(int[] refs, int frameCount) {
+        return simulate(new OptFrames(frameCount, nextUses(refs)), refs);
+    }
+
+    // Single backward pass: position of the next reference to refs[i], refs.length if none
+    private static int[] nextUses(int[] refs) {
+        int[] next = new int[refs.length];
+        PageIndex seen = new PageIndex(16);
+        for (int i = refs.length - 1; i >= 0; i--) {
+            int later = seen.get(refs[i]);
+            next[i] = later == -1 ? refs.length : later;
+            seen.put(refs[i], i);
+        }
+        return next;
+    }
+
+    // OPT over a compact trace without materializing it: a backward pass over the
+    // blocks spills every reference's next use to a temp file, then a forward pass
+    // replays the blocks alongside it. Heap use is one block plus the distinct pages.
+    private static long simulateOPT(CompactTrace trace, int frameCount) throws IOException {
+        Path spill = Files.createTempFile("opt-next-use", ".bin");
+        try (FileChannel nextUses = FileChannel.open(spill, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            int[] refs = new int[trace.blockRefs()];
+            ByteBuffer next = ByteBuffer.allocateDirect(refs.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+            PageIndex ids = new PageIndex(16); // page -> dense id into lastSeen
+            long[] lastSeen = new long[16];
+            long never = trace.size();
+
+            for (int b = trace.blockCount() - 1; b >= 0; b--) {
+                int count = trace.decodeBlock(b, refs);
+                long start = trace.blockStart(b);
+                next.clear();
+                for (int i = count - 1; i >= 0; i--) {
+                    int id = ids.get(refs[i]);
+                    if (id == -1) {
+                        id = ids.size();
+                        ids.put(refs[i], id);
+                        if (id == lastSeen.length) lastSeen = Arrays.copyOf(lastSeen, id * 2);
+                        lastSeen[id] = never;
+                    }
+                    next.putLong(i * 8, lastSeen[id]);
+                    lastSeen[id] = start + i;
+                }
+                next.limit(count * 8);
+                while (next.hasRemaining()) nextUses.write(next, start * 8 + next.position());
+            }
+
+            OptFrames opt = new OptFrames(frameCount);
+            long faults = 0;
+            for (int b = 0; b < trace.blockCount(); b++) {
+                int count = trace.decodeBlock(b, refs);
+                long start = trace.blockStart(b);
+                next.clear().limit(count * 8);
+                while (next.hasRemaining()) {
+                    if (nextUses.read(next, start * 8 + next.position()) < 0) throw new EOFException(spill.toString());
+                }
+                for (int i = 0; i < count; i++) {
+                    if (opt.access(refs[i], next.getLong(i * 8))) faults++;
+                }
+            }
+            return faults;
+        }
+    }
+
+    // Open-addressed page -> int index (linear probing, backward-shift delete);
+    // doubles when half full, so it also serves as an unbounded page map. Java
+    // arrays cap it at MAX_ENTRIES; larger frame tables need --offheap.
+    private static final class PageIndex {
+        private static final int MAX_ENTRIES = 1 << 29;
+
+        private int[] keys;
+        private int[] vals; // value + 1, 0 marks an empty bucket
+        private int mask;
+        private int size;
+
+        PageIndex(int expected) {
+            if (expected > MAX_ENTRIES) {
+                throw new IllegalArgumentException("page index holds at most " + MAX_ENTRIES + " entries on heap, "
+                        + expected + " requested (use --offheap)");
+            }
+            int cap = Integer.highestOneBit(Math.max(1, expected * 2 - 1)) << 1;
+            keys = new int[cap];
+            vals = new int[cap];
+            mask = cap - 1;
+        }
+
+        private int home(int key) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        int get(int key) {
+            for (int b = home(key); vals[b] != 0; b = (b + 1) & mask) {
+                if (keys[b] == key) return vals[b] - 1;
+            }
+            return -1;
+        }
+
+        void put(int key, int val) {
+            int b = home(key);
+            while (vals[b] != 0 && keys[b] != key) b = (b + 1) & mask;
+            if (vals[b] == 0) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    put(key, val);
+                    return;
+                }
+                size++;
+            }
+            keys[b] = key;
+            vals[b] = val + 1;
+        }
+
+        void remove(int key) {
+            int b = home(key);
+            while (vals[b] != 0 && keys[b] != key) b = (b + 1) & mask;
+            if (vals[b] == 0) return;
+            size--;
+            // shift later entries of the probe run back into the hole
+            for (int j = (b + 1) & mask; vals[j] != 0; j = (j + 1) & mask) {
+                if (((j - home(keys[j])) & mask) >= ((j - b) & mask)) {
+                    keys[b] = keys[j];
+                    vals[b] = vals[j];
+                    b = j;
+                }
+            }
+            vals[b] = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void grow() {
+            if (keys.length > MAX_ENTRIES) {
+                throw new IllegalStateException("page index holds at most " + MAX_ENTRIES + " entries on heap");
+            }
+            int[] oldKeys = keys, oldVals = vals;
+            keys = new int[oldKeys.length * 2];
+            vals = new int[oldKeys.length * 2];
+            mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldVals[i] == 0) continue;
+                int b = home(oldKeys[i]);
+                while (vals[b] != 0) b = (b + 1) & mask;
+                keys[b] = oldKeys[i];
+                vals[b] = oldVals[i];
+            }
+        }
+    }
+
+    // A page replacement policy over a fixed number of frames. access() is the
+    // hot path: it must not allocate and returns true on a page fault. resident()
+    // is off the hot path; the frame tables use it to see which page a fault evicted.
+    private interface ReplacementPolicy {
+        boolean access(int page);
+
+        boolean resident(int page);
+
+        // A reference that may write the page. Policies over a FrameTable mark the
+        // frame dirty and count a writeback when a dirty page is evicted; the rest
+        // do not model writes.
+        default boolean access(int page, boolean write) {
+            return access(page);
+        }
+
+        default long writebacks() {
+            return 0;
+        }
+    }
+
+    // Per-frame storage for the frame-based policies: resident page, recency
+    // links, reference and dirty bits and owning process, plus the page -> frame
+    // index over the residents
+    private interface FrameTable {
+        int size();
+
+        int page(int frame);
+
+        void setPage(int frame, int page);
+
+        int prev(int frame);
+
+        void setPrev(int frame, int prev);
+
+        int next(int frame);
+
+        void setNext(int frame, int next);
+
+        boolean referenced(int frame);
+
+        void setReferenced(int frame, boolean referenced);
+
+        boolean dirty(int frame);
+
+        void setDirty(int frame, boolean dirty);
+
+        // Process the resident page belongs to
+        int owner(int frame);
+
+        void setOwner(int frame, int owner);
+
+        // Frame holding page, or -1 if it is not resident
+        int frameOf(int page);
+
+        void bind(int page, int frame);
+
+        void unbind(int page);
+    }
+
+    private static FrameTable newFrameTable(int frameCount, boolean offHeap) {
+        return offHeap ? new OffHeapFrameTable(frameCount) : new HeapFrameTable(frameCount);
+    }
+
+    // One primitive array per field, index in a PageIndex
+    private static final class HeapFrameTable implements FrameTable {
+        private final int[] pages, prev, next, owner;
+        private final boolean[] referenced, dirty;
+        private final PageIndex index;
+
+        HeapFrameTable(int frameCount) {
+            index = new PageIndex(frameCount);
+            pages = new int[frameCount];
+            prev = new int[frameCount];
+            next = new int[frameCount];
+            owner = new int[frameCount];
+            referenced = new boolean[frameCount];
+            dirty = new boolean[frameCount];
+        }
+
+        @Override public int size() { return pages.length; }
+        @Override public int page(int frame) { return pages[frame]; }
+        @Override public void setPage(int frame, int page) { pages[frame] = page; }
+        @Override public int prev(int frame) { return prev[frame]; }
+        @Override public void setPrev(int frame, int p) { prev[frame] = p; }
+        @Override public int next(int frame) { return next[frame]; }
+        @Override public void setNext(int frame, int n) { next[frame] = n; }
+        @Override public boolean referenced(int frame) { return referenced[frame]; }
+        @Override public void setReferenced(int frame, boolean on) { referenced[frame] = on; }
+        @Override public boolean dirty(int frame) { return dirty[frame]; }
+        @Override public void setDirty(int frame, boolean on) { dirty[frame] = on; }
+        @Override public int owner(int frame) { return owner[frame]; }
+        @Override public void setOwner(int frame, int pid) { owner[frame] = pid; }
+        @Override public int frameOf(int page) { return index.get(page); }
+        @Override public void bind(int page, int frame) { index.put(page, frame); }
+        @Override public void unbind(int page) { index.remove(page); }
+    }
+
+    // Frames and their index in direct ByteBuffers, outside the GC heap. Frames are
+    // 16-byte structs, 2^26 (1 GB) per buffer:
+    //   0 page (int)  4 prev (int)  8 next (int)  12 referenced (byte)  13 dirty (byte)  14 owner (short)
+    // The index is open-addressed over 8-byte buckets (page, frame + 1; 0 = empty),
+    // 2^27 (1 GB) per buffer, at least twice the frame count so it never grows.
+    // Bucket positions are longs, so any int frame count fits (up to 32 GB of
+    // buckets). Native memory is bounded by -XX:MaxDirectMemorySize.
+    private static final class OffHeapFrameTable implements FrameTable {
+        private static final int FRAME_BYTES = 16;
+        private static final int SEGMENT_SHIFT = 26;
+        private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+        private static final int BUCKET_BYTES = 8;
+        private static final int BUCKET_SHIFT = 27;
+        private static final int BUCKET_MASK = (1 << BUCKET_SHIFT) - 1;
+
+        private final ByteBuffer[] segments;
+        private final ByteBuffer[] buckets;
+        private final long mask;
+        private final int size;
+
+        OffHeapFrameTable(int frameCount) {
+            if (frameCount < 1) throw new IllegalArgumentException("frame table needs at least one frame, got " + frameCount);
+            size = frameCount;
+            segments = new ByteBuffer[(int) (((long) frameCount + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int s = 0; s < segments.length; s++) {
+                int frames = (int) Math.min(1 << SEGMENT_SHIFT, frameCount - ((long) s << SEGMENT_SHIFT));
+                segments[s] = ByteBuffer.allocateDirect(frames * FRAME_BYTES).order(ByteOrder.nativeOrder());
+            }
+            long capacity = Long.highestOneBit(2L * frameCount - 1) << 1;
+            mask = capacity - 1;
+            buckets = new ByteBuffer[(int) Math.max(1, capacity >>> BUCKET_SHIFT)];
+            for (int s = 0; s < buckets.length; s++) {
+                int count = (int) Math.min(1 << BUCKET_SHIFT, capacity);
+                buckets[s] = ByteBuffer.allocateDirect(count * BUCKET_BYTES).order(ByteOrder.nativeOrder());
+            }
+        }
+
+        private ByteBuffer segment(int frame) {
+            return segments[frame >>> SEGMENT_SHIFT];
+        }
+
+        private static int offset(int frame) {
+            return (frame & SEGMENT_MASK) * FRAME_BYTES;
+        }
+
+        @Override public int size() { return size; }
+        @Override public int page(int frame) { return segment(frame).getInt(offset(frame)); }
+        @Override public void setPage(int frame, int page) { segment(frame).putInt(offset(frame), page); }
+        @Override public int prev(int frame) { return segment(frame).getInt(offset(frame) + 4); }
+        @Override public void setPrev(int frame, int p) { segment(frame).putInt(offset(frame) + 4, p); }
+        @Override public int next(int frame) { return segment(frame).getInt(offset(frame) + 8); }
+        @Override public void setNext(int frame, int n) { segment(frame).putInt(offset(frame) + 8, n); }
+        @Override public boolean referenced(int frame) { return segment(frame).get(offset(frame) + 12) != 0; }
+        @Override public void setReferenced(int frame, boolean on) { segment(frame).put(offset(frame) + 12, (byte) (on ? 1 : 0)); }
+        @Override public boolean dirty(int frame) { return segment(frame).get(offset(frame) + 13) != 0; }
+        @Override public void setDirty(int frame, boolean on) { segment(frame).put(offset(frame) + 13, (byte) (on ? 1 : 0)); }
+        @Override public int owner(int frame) { return segment(frame).getShort(offset(frame) + 14); }
+
+        @Override
+        public void setOwner(int frame, int pid) {
+            if (pid != (short) pid) throw new IllegalArgumentException("owner " + pid + " does not fit the 16-bit owner field");
+            segment(frame).putShort(offset(frame) + 14, (short) pid);
+        }
+
+        private long home(int page) {
+            int h = page * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & 0xFFFFFFFFL & mask;
+        }
+
+        private int key(long b) {
+            return buckets[(int) (b >>> BUCKET_SHIFT)].getInt((int) (b & BUCKET_MASK) * BUCKET_BYTES);
+        }
+
+        private int value(long b) {
+            return buckets[(int) (b >>> BUCKET_SHIFT)].getInt((int) (b & BUCKET_MASK) * BUCKET_BYTES + 4);
+        }
+
+        private void set(long b, int key, int value) {
+            ByteBuffer bucket = buckets[(int) (b >>> BUCKET_SHIFT)];
+            int at = (int) (b & BUCKET_MASK) * BUCKET_BYTES;
+            bucket.putInt(at, key);
+            bucket.putInt(at + 4, value);
+        }
+
+        @Override
+        public int frameOf(int page) {
+            for (long b = home(page); value(b) != 0; b = (b + 1) & mask) {
+                if (key(b) == page) return value(b) - 1;
+            }
+            return -1;
+        }
+
+        @Override
+        public void bind(int page, int frame) {
+            long b = home(page);
+            while (value(b) != 0 && key(b) != page) b = (b + 1) & mask;
+            set(b, page, frame + 1);
+        }
+
+        @Override
+        public void unbind(int page) {
+            long b = home(page);
+            while (value(b) != 0 && key(b) != page) b = (b + 1) & mask;
+            if (value(b) == 0) return;
+            // shift later entries of the probe run back into the hole
+            for (long j = (b + 1) & mask; value(j) != 0; j = (j + 1) & mask) {
+                int k = key(j);
+                if (((j - home(k)) & mask) >= ((j - b) & mask)) {
+                    set(b, k, value(j));
+                    b = j;
+                }
+            }
+            set(b, 0, 0);
+        }
+    }
+
+    // FIFO: circular replacement pointer plus a page -> frame index
+    private static final class FifoFrames implements ReplacementPolicy {
+        private final FrameTable frames;
+        private int pointer = 0, filled = 0;
+        private long writebacks = 0;
+
+        FifoFrames(FrameTable frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public boolean access(int page) {
+            return access(page, false);
+        }
+
+        @Override
+        public boolean access(int page, boolean write) {
+            int slot = frames.frameOf(page);
+            if (slot != -1) {
+                if (write) frames.setDirty(slot, true);
+                return false;
+            }
+            if (filled < frames.size()) filled++; else evict(pointer);
+            frames.setPage(pointer, page);
+            frames.setDirty(pointer, write);
+            frames.bind(page, pointer);
+            pointer = (pointer + 1) % frames.size();
+            return true;
+        }
+
+        private void evict(int slot) {
+            if (frames.dirty(slot)) writebacks++;
+            frames.unbind(frames.page(slot));
+        }
+
+        @Override
+        public long writebacks() {
+            return writebacks;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            return frames.frameOf(page) != -1;
+        }
+    }
+
+    // O(1) LRU: page -> frame hash index plus an intrusive doubly linked
+    // recency list threaded through the frame table (head = most recent)
+    private static final class LruFrames implements ReplacementPolicy {
+        private final FrameTable frames;
+        private int head = -1, tail = -1, filled = 0;
+        private long writebacks = 0;
+
+        LruFrames(FrameTable frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public boolean access(int page) {
+            return access(page, false);
+        }
+
+        @Override
+        public boolean access(int page, boolean write) {
+            int slot = frames.frameOf(page);
+            if (slot != -1) {
+                // hit: move to front of the recency list
+                if (write) frames.setDirty(slot, true);
+                if (slot != head) {
+                    unlink(slot);
+                    pushFront(slot);
+                }
+                return false;
+            }
+            if (filled < frames.size()) {
+                // free slots are handed out left to right
+                slot = filled++;
+            } else {
+                // evict least recently used (list tail) and reuse its slot
+                slot = tail;
+                unlink(slot);
+                if (frames.dirty(slot)) writebacks++;
+                frames.unbind(frames.page(slot));
+            }
+            frames.setPage(slot, page);
+            frames.setDirty(slot, write);
+            frames.bind(page, slot);
+            pushFront(slot);
+            return true;
+        }
+
+        @Override
+        public long writebacks() {
+            return writebacks;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            return frames.frameOf(page) != -1;
+        }
+
+        private void unlink(int slot) {
+            int p = frames.prev(slot), n = frames.next(slot);
+            if (p != -1) frames.setNext(p, n); else head = n;
+            if (n != -1) frames.setPrev(n, p); else tail = p;
+        }
+
+        private void pushFront(int slot) {
+            frames.setPrev(slot, -1);
+            frames.setNext(slot, head);
+            if (head != -1) frames.setPrev(head, slot); else tail = slot;
+            head = slot;
+        }
+    }
+
+    // Belady OPT frame table: resident slots kept in an indexed max-heap keyed
+    // on each page's next use, so the victim is always the heap root
+    private static final class OptFrames implements ReplacementPolicy {
+        private final int[] frames; // slot -> page
+        private final long[] nextUse; // slot -> position of the page's next reference
+        private final int[] heap;    // heap of slots
+        private final int[] pos;     // slot -> position in heap
+        private final PageIndex index;
+        private final int[] nextUses; // next-use index of the replayed trace, or null
+        private int time = 0;
+        private int filled = 0;
+
+        OptFrames(int frameCount) {
+            this(frameCount, null);
+        }
+
+        OptFrames(int frameCount, int[] nextUses) {
+            this.nextUses = nextUses;
+            frames = new int[frameCount];
+            nextUse = new long[frameCount];
+            heap = new int[frameCount];
+            pos = new int[frameCount];
+            index = new PageIndex(frameCount);
+        }
+
+        // Replay position by position against the trace's next-use index
+        @Override
+        public boolean access(int page) {
+            return access(page, nextUses[time++]);
+        }
+
+        @Override
+        public boolean resident(int page) {
+            return index.get(page) != -1;
+        }
+
+        // Reference a page whose following use is at position next, return true on a fault
+        boolean access(int page, long next) {
+            int slot = index.get(page);
+            if (slot != -1) {
+                // hit: next use only moves later, so the slot can only rise
+                nextUse[slot] = next;
+                siftUp(pos[slot]);
+                return false;
+            }
+            if (filled < frames.length) {
+                slot = filled++;
+                frames[slot] = page;
+                nextUse[slot] = next;
+                index.put(page, slot);
+                heap[slot] = slot;
+                pos[slot] = slot;
+                siftUp(slot);
+            } else {
+                // evict the page used farthest in the future (heap root)
+                slot = heap[0];
+                index.remove(frames[slot]);
+                frames[slot] = page;
+                nextUse[slot] = next;
+                index.put(page, slot);
+                siftDown(0);
+            }
+            return true;
+        }
+
+        // Farther next use wins; pages never used again tie-break on lowest slot
+        private boolean above(int a, int b) {
+            return nextUse[a] > nextUse[b] || (nextUse[a] == nextUse[b] && a < b);
+        }
+
+        private void siftUp(int i) {
+            int slot = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(slot, heap[parent])) break;
+                heap[i] = heap[parent];
+                pos[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = slot;
+            pos[slot] = i;
+        }
+
+        private void siftDown(int i) {
+            int slot = heap[i];
+            int n = filled;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) break;
+                if (child + 1 < n && above(heap[child + 1], heap[child])) child++;
+                if (!above(heap[child], slot)) break;
+                heap[i] = heap[child];
+                pos[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = slot;
+            pos[slot] = i;
+        }
+    }
+
+    // Intrusive doubly linked lists over node numbers; each node sits on at most
+    // one list at a time, so several queues can share one set of link arrays
+    private static final class NodeLists {
+        private final int[] prev, next;
+        private final byte[] owner; // node -> list, -1 when unlinked
+        private final int[] head, tail, size;
+
+        NodeLists(int nodes, int lists) {
+            prev = new int[nodes];
+            next = new int[nodes];
+            owner = new byte[nodes];
+            for (int i = 0; i < nodes; i++) owner[i] = -1;
+            head = new int[lists];
+            tail = new int[lists];
+            size = new int[lists];
+            for (int l = 0; l < lists; l++) head[l] = tail[l] = -1;
+        }
+
+        int owner(int node) {
+            return owner[node];
+        }
+
+        int size(int list) {
+            return size[list];
+        }
+
+        int tail(int list) {
+            return tail[list];
+        }
+
+        void pushFront(int list, int node) {
+            prev[node] = -1;
+            next[node] = head[list];
+            if (head[list] != -1) prev[head[list]] = node; else tail[list] = node;
+            head[list] = node;
+            owner[node] = (byte) list;
+            size[list]++;
+        }
+
+        void remove(int node) {
+            int list = owner[node];
+            int p = prev[node], n = next[node];
+            if (p != -1) next[p] = n; else head[list] = n;
+            if (n != -1) prev[n] = p; else tail[list] = p;
+            owner[node] = -1;
+            size[list]--;
+        }
+
+        void moveToFront(int list, int node) {
+            remove(node);
+            pushFront(list, node);
+        }
+    }
+
+    // CLOCK (second chance): a hand sweeps the frames, clearing reference bits
+    // and evicting the first page found with its bit already clear
+    private static final class ClockFrames implements ReplacementPolicy {
+        private final FrameTable frames;
+        private final int owner;
+        private int hand = 0, filled = 0;
+        private long writebacks = 0;
+
+        ClockFrames(FrameTable frames) {
+            this(frames, 0);
+        }
+
+        // Frames of one process's local allocation, tagged with its pid
+        ClockFrames(FrameTable frames, int owner) {
+            this.frames = frames;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean access(int page) {
+            return access(page, false);
+        }
+
+        @Override
+        public boolean access(int page, boolean write) {
+            int slot = frames.frameOf(page);
+            if (slot != -1) {
+                frames.setReferenced(slot, true);
+                if (write) frames.setDirty(slot, true);
+                return false;
+            }
+            if (filled < frames.size()) {
+                slot = filled++;
+            } else {
+                while (frames.referenced(hand)) {
+                    frames.setReferenced(hand, false);
+                    hand = (hand + 1) % frames.size();
+                }
+                slot = hand;
+                hand = (hand + 1) % frames.size();
+                if (frames.dirty(slot)) writebacks++;
+                frames.unbind(frames.page(slot));
+            }
+            frames.setPage(slot, page);
+            frames.setReferenced(slot, true);
+            frames.setDirty(slot, write);
+            frames.setOwner(slot, owner);
+            frames.bind(page, slot);
+            return true;
+        }
+
+        @Override
+        public long writebacks() {
+            return writebacks;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            return frames.frameOf(page) != -1;
+        }
+    }
+
+    // CLOCK over a frame pool shared by concurrent processes. Frame tags and
+    // reference states are atomics and the hand is a shared counter, so faults
+    // claim victims with CAS alone; each process's page -> frame index sits behind
+    // its own lock, contended only when another process evicts one of its pages.
+    // A process's pages are only ever installed by its own thread.
+    private static final class GlobalClock {
+        private static final long EMPTY = -1;
+        private static final int CLEAR = 0, USED = 1, BUSY = 2;
+
+        private final AtomicLongArray tags; // (pid << 32) | page of the resident page
+        private final AtomicIntegerArray states;
+        private final AtomicLong hand = new AtomicLong();
+        private final PageIndex[] resident;
+        private final ReentrantLock[] locks;
+
+        GlobalClock(int frameCount, int processes) {
+            tags = new AtomicLongArray(frameCount);
+            for (int f = 0; f < frameCount; f++) tags.set(f, EMPTY);
+            states = new AtomicIntegerArray(frameCount);
+            resident = new PageIndex[processes];
+            locks = new ReentrantLock[processes];
+            for (int p = 0; p < processes; p++) {
+                resident[p] = new PageIndex(Math.max(16, frameCount / processes));
+                locks[p] = new ReentrantLock();
+            }
+        }
+
+        boolean access(int pid, int page) {
+            int frame;
+            locks[pid].lock();
+            try {
+                frame = resident[pid].get(page);
+            } finally {
+                locks[pid].unlock();
+            }
+            if (frame != -1 && hit(frame, (long) pid << 32 | (page & 0xFFFFFFFFL))) return false;
+            frame = claim();
+            long old = tags.get(frame);
+            if (old != EMPTY) {
+                int owner = (int) (old >>> 32);
+                locks[owner].lock();
+                try {
+                    if (resident[owner].get((int) old) == frame) resident[owner].remove((int) old);
+                } finally {
+                    locks[owner].unlock();
+                }
+            }
+            tags.set(frame, (long) pid << 32 | (page & 0xFFFFFFFFL));
+            locks[pid].lock();
+            try {
+                resident[pid].put(page, frame);
+            } finally {
+                locks[pid].unlock();
+            }
+            states.set(frame, USED);
+            return true;
+        }
+
+        // A hit only counts if the frame still holds this page and is not mid-refill:
+        // the index entry can go stale between the lookup and an eviction removing
+        // it, and then the access is a fault. Tags change only while a frame is BUSY
+        // and never return to this process's page behind its back, so an unchanged
+        // tag around the state read means no eviction came in between.
+        private boolean hit(int frame, long tag) {
+            while (tags.get(frame) == tag) {
+                int state = states.get(frame);
+                if (state == BUSY) return false;
+                if (state == USED || states.compareAndSet(frame, CLEAR, USED)) return tags.get(frame) == tag;
+            }
+            return false;
+        }
+
+        // Sweep the hand: clear used frames, take the first clear one. Frames being
+        // refilled by another process are skipped; a full fruitless turn yields the
+        // carrier so their owners can finish.
+        private int claim() {
+            int frames = states.length();
+            for (int probes = 1; ; probes++) {
+                int f = (int) (hand.getAndIncrement() % frames);
+                int state = states.get(f);
+                if (state == USED) {
+                    states.compareAndSet(f, USED, CLEAR);
+                } else if (state == CLEAR && states.compareAndSet(f, CLEAR, BUSY)) {
+                    return f;
+                }
+                if (probes % (2 * frames) == 0) Thread.yield();
+            }
+        }
+    }
+
+    // One simulated process: its reference stream, replayed quantum by quantum
+    // under either global or local replacement. Each reference is a write with
+    // probability writeRatio, drawn from a per-process seed so both passes see the
+    // same writes; only the local frame tables track dirty pages.
+    private static final class SimProcess {
+        final int pid;
+        final TraceReader refs;
+        private final GlobalClock global;
+        final ReplacementPolicy local;
+        private final double writeRatio;
+        private final SplittableRandom writes;
+        long references = 0, faults = 0;
+
+        SimProcess(int pid, TraceReader refs, GlobalClock global, ReplacementPolicy local, double writeRatio, long seed) {
+            this.pid = pid;
+            this.refs = refs;
+            this.global = global;
+            this.local = local;
+            this.writeRatio = writeRatio;
+            writes = new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (pid + 1)));
+        }
+
+        // Replay up to quantum references; false once the stream is exhausted
+        boolean step(int quantum) {
+            for (int i = 0; i < quantum; i++) {
+                if (!refs.hasNext()) return false;
+                int page = refs.nextInt();
+                references++;
+                boolean write = writeRatio > 0 && writes.nextDouble() < writeRatio;
+                if (local != null ? local.access(page, write) : global.access(pid, page)) faults++;
+            }
+            return refs.hasNext();
+        }
+    }
+
+    // LFU: indexed min-heap on (reference count, last use); counts start over
+    // when a page is evicted, ties go to the least recently used page
+    private static final class LfuFrames implements ReplacementPolicy {
+        private final int[] frames;
+        private final long[] count;
+        private final long[] lastUse;
+        private final int[] heap, pos;
+        private final PageIndex index;
+        private long time = 0;
+        private int filled = 0;
+
+        LfuFrames(int frameCount) {
+            frames = new int[frameCount];
+            count = new long[frameCount];
+            lastUse = new long[frameCount];
+            heap = new int[frameCount];
+            pos = new int[frameCount];
+            index = new PageIndex(frameCount);
+        }
+
+        @Override
+        public boolean access(int page) {
+            time++;
+            int slot = index.get(page);
+            if (slot != -1) {
+                count[slot]++;
+                lastUse[slot] = time;
+                siftDown(pos[slot]);
+                return false;
+            }
+            if (filled < frames.length) {
+                slot = filled++;
+                heap[slot] = slot;
+                pos[slot] = slot;
+            } else {
+                slot = heap[0];
+                index.remove(frames[slot]);
+            }
+            frames[slot] = page;
+            count[slot] = 1;
+            lastUse[slot] = time;
+            index.put(page, slot);
+            siftUp(pos[slot]);
+            siftDown(pos[slot]);
+            return true;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            return index.get(page) != -1;
+        }
+
+        private boolean below(int a, int b) {
+            return count[a] < count[b] || (count[a] == count[b] && lastUse[a] < lastUse[b]);
+        }
+
+        private void siftUp(int i) {
+            int slot = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!below(slot, heap[parent])) break;
+                heap[i] = heap[parent];
+                pos[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = slot;
+            pos[slot] = i;
+        }
+
+        private void siftDown(int i) {
+            int slot = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= filled) break;
+                if (child + 1 < filled && below(heap[child + 1], heap[child])) child++;
+                if (!below(heap[child], slot)) break;
+                heap[i] = heap[child];
+                pos[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = slot;
+            pos[slot] = i;
+        }
+    }
+
+    // 2Q (Johnson & Shasha, full version): first-time pages enter the A1in FIFO;
+    // pages evicted from it are remembered in the A1out ghost FIFO, and only a
+    // re-reference from there promotes a page into the Am LRU queue
+    private static final class TwoQueueFrames implements ReplacementPolicy {
+        private static final int A1IN = 0, AM = 1, A1OUT = 2;
+
+        private final int frameCount, kin, kout;
+        private final int[] pages;    // node -> page; nodes [0, frames) hold pages, the rest are ghosts
+        private final NodeLists lists;
+        private final PageIndex index; // page -> node, resident or ghost
+        private final int[] freeGhosts;
+        private int freeGhostCount, filled = 0;
+
+        TwoQueueFrames(int frameCount) {
+            this.frameCount = frameCount;
+            kin = Math.max(1, frameCount / 4);
+            kout = Math.max(1, frameCount / 2);
+            pages = new int[frameCount + kout];
+            lists = new NodeLists(frameCount + kout, 3);
+            index = new PageIndex(frameCount + kout);
+            freeGhosts = new int[kout];
+            for (int g = 0; g < kout; g++) freeGhosts[g] = frameCount + g;
+            freeGhostCount = kout;
+        }
+
+        @Override
+        public boolean access(int page) {
+            int node = index.get(page);
+            if (node != -1) {
+                int list = lists.owner(node);
+                if (list == AM) {
+                    lists.moveToFront(AM, node);
+                    return false;
+                }
+                if (list == A1IN) return false;
+                // remembered in A1out: the page earns a place in Am
+                lists.remove(node);
+                index.remove(page);
+                freeGhosts[freeGhostCount++] = node;
+                insert(AM, page);
+                return true;
+            }
+            insert(A1IN, page);
+            return true;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            int node = index.get(page);
+            return node != -1 && node < frameCount;
+        }
+
+        private void insert(int list, int page) {
+            int node;
+            if (filled < frameCount) {
+                node = filled++;
+            } else if (lists.size(A1IN) > kin || lists.size(AM) == 0) {
+                node = lists.tail(A1IN);
+                lists.remove(node);
+                index.remove(pages[node]);
+                remember(pages[node]);
+            } else {
+                node = lists.tail(AM);
+                lists.remove(node);
+                index.remove(pages[node]);
+            }
+            pages[node] = page;
+            index.put(page, node);
+            lists.pushFront(list, node);
+        }
+
+        private void remember(int page) {
+            int ghost;
+            if (freeGhostCount > 0) {
+                ghost = freeGhosts[--freeGhostCount];
+            } else {
+                ghost = lists.tail(A1OUT);
+                lists.remove(ghost);
+                index.remove(pages[ghost]);
+            }
+            pages[ghost] = page;
+            index.put(page, ghost);
+            lists.pushFront(A1OUT, ghost);
+        }
+    }
+
+    // ARC (Megiddo & Modha): resident lists T1 (seen once) and T2 (seen twice or
+    // more) with ghost lists B1/B2; ghost hits move the target size p of T1
+    private static final class ArcFrames implements ReplacementPolicy {
+        private static final int T1 = 0, T2 = 1, B1 = 2, B2 = 3;
+
+        private final int c;
+        private final int[] pages; // node -> page, 2c nodes for cache plus ghosts
+        private final NodeLists lists;
+        private final PageIndex index;
+        private final int[] free;
+        private int freeCount;
+        private int p = 0;
+
+        ArcFrames(int frameCount) {
+            c = frameCount;
+            pages = new int[2 * c];
+            lists = new NodeLists(2 * c, 4);
+            index = new PageIndex(2 * c);
+            free = new int[2 * c];
+            for (int i = 0; i < 2 * c; i++) free[i] = 2 * c - 1 - i;
+            freeCount = 2 * c;
+        }
+
+        @Override
+        public boolean access(int page) {
+            int node = index.get(page);
+            if (node != -1) {
+                int list = lists.owner(node);
+                if (list == T1 || list == T2) {
+                    lists.moveToFront(T2, node);
+                    return false;
+                }
+                if (list == B1) {
+                    p = Math.min(c, p + Math.max(1, lists.size(B2) / lists.size(B1)));
+                    replace(false);
+                } else {
+                    p = Math.max(0, p - Math.max(1, lists.size(B1) / lists.size(B2)));
+                    replace(true);
+                }
+                lists.moveToFront(T2, node);
+                return true;
+            }
+
+            int l1 = lists.size(T1) + lists.size(B1);
+            if (l1 == c) {
+                if (lists.size(T1) < c) {
+                    drop(lists.tail(B1));
+                    replace(false);
+                } else {
+                    drop(lists.tail(T1));
+                }
+            } else {
+                int total = l1 + lists.size(T2) + lists.size(B2);
+                if (total >= c) {
+                    if (total == 2 * c) drop(lists.tail(B2));
+                    replace(false);
+                }
+            }
+            node = free[--freeCount];
+            pages[node] = page;
+            index.put(page, node);
+            lists.pushFront(T1, node);
+            return true;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            int node = index.get(page);
+            return node != -1 && lists.owner(node) <= T2;
+        }
+
+        // Demote the LRU page of T1 or T2 to the matching ghost list
+        private void replace(boolean hitInB2) {
+            int t1 = lists.size(T1);
+            boolean fromT1 = t1 >= 1 && ((hitInB2 && t1 == p) || t1 > p);
+            if (fromT1 || lists.size(T2) == 0) {
+                lists.moveToFront(B1, lists.tail(T1));
+            } else {
+                lists.moveToFront(B2, lists.tail(T2));
+            }
+        }
+
+        private void drop(int node) {
+            lists.remove(node);
+            index.remove(pages[node]);
+            free[freeCount++] = node;
+        }
+    }
+
+    // W-TinyLFU (Einziger, Friedman & Manes): a 1% LRU window in front of a
+    // segmented LRU main area (20% probation, 80% protected). A page leaving
+    // the window only displaces the probation victim if the frequency sketch
+    // has seen it more often.
+    private static final class WTinyLfuFrames implements ReplacementPolicy {
+        private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+        private final int frameCount, windowMax, protectedMax;
+        private final int[] pages;
+        private final NodeLists lists;
+        private final PageIndex index;
+        private final FrequencySketch sketch;
+        private int filled = 0;
+
+        WTinyLfuFrames(int frameCount) {
+            this.frameCount = frameCount;
+            windowMax = Math.max(1, frameCount / 100);
+            protectedMax = (frameCount - windowMax) * 4 / 5;
+            pages = new int[frameCount];
+            lists = new NodeLists(frameCount, 3);
+            index = new PageIndex(frameCount);
+            sketch = new FrequencySketch(frameCount);
+        }
+
+        @Override
+        public boolean access(int page) {
+            sketch.increment(page);
+            int node = index.get(page);
+            if (node != -1) {
+                int list = lists.owner(node);
+                if (list == PROBATION) {
+                    lists.moveToFront(PROTECTED, node);
+                    if (lists.size(PROTECTED) > protectedMax) {
+                        lists.moveToFront(PROBATION, lists.tail(PROTECTED));
+                    }
+                } else {
+                    lists.moveToFront(list, node);
+                }
+                return false;
+            }
+
+            if (filled < frameCount) {
+                node = filled++;
+                if (lists.size(WINDOW) == windowMax) {
+                    // the main area still has room: the window victim moves straight in
+                    lists.moveToFront(PROBATION, lists.tail(WINDOW));
+                }
+            } else {
+                int candidate = lists.tail(WINDOW);
+                int victim = lists.size(PROBATION) > 0 ? lists.tail(PROBATION) : lists.tail(PROTECTED);
+                if (victim != -1 && sketch.frequency(pages[candidate]) > sketch.frequency(pages[victim])) {
+                    lists.moveToFront(PROBATION, candidate);
+                    node = victim;
+                } else {
+                    node = candidate;
+                }
+                lists.remove(node);
+                index.remove(pages[node]);
+            }
+            pages[node] = page;
+            index.put(page, node);
+            lists.pushFront(WINDOW, node);
+            return true;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            return index.get(page) != -1;
+        }
+    }
+
+    // Count-min sketch of 4-bit saturating counters, 4 rows; every counter is
+    // halved once 10x the width has been recorded, so old popularity fades
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[] counters; // 4 rows of width counters
+        private final int width, sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int expected) {
+            width = Integer.highestOneBit(Math.max(16, expected - 1)) << 1;
+            counters = new byte[4 * width];
+            sampleSize = 10 * width;
+        }
+
+        void increment(int page) {
+            for (int row = 0; row < 4; row++) {
+                int i = row * width + slot(page, row);
+                if (counters[i] < 15) counters[i]++;
+            }
+            if (++additions == sampleSize) {
+                for (int i = 0; i < counters.length; i++) counters[i] >>= 1;
+                additions /= 2;
+            }
+        }
+
+        int frequency(int page) {
+            int min = 15;
+            for (int row = 0; row < 4; row++) min = Math.min(min, counters[row * width + slot(page, row)]);
+            return min;
+        }
+
+        private int slot(int page, int row) {
+            int h = (page + row) * SEEDS[row];
+            return (h ^ (h >>> 15)) & (width - 1);
+        }
+    }
+
+    // Denning's working set W(t, tau): the pages referenced in the last tau
+    // references. A ring of the last tau page ids tells which reference falls out
+    // of the window at each step; the page leaves the set only if that was its most
+    // recent reference.
+    private static final class WorkingSet {
+        private final int tau;
+        private final int[] recent; // ids of the last tau references, oldest at cursor once full
+        private final PageIndex ids = new PageIndex(1024);
+        private long[] lastRef = new long[1024];
+        private int cursor = 0;
+        private long time = 0;
+        private int size = 0;
+
+        WorkingSet(int tau) {
+            if (tau < 1) throw new IllegalArgumentException("working-set window must be positive");
+            this.tau = tau;
+            recent = new int[tau];
+        }
+
+        // True when page was outside W(t - 1, tau): a fault under the working-set policy
+        boolean access(int page) {
+            int id = ids.get(page);
+            if (id < 0) {
+                id = ids.size();
+                ids.put(page, id);
+                if (id == lastRef.length) lastRef = Arrays.copyOf(lastRef, id * 2);
+                lastRef[id] = Long.MIN_VALUE;
+            }
+            boolean fault = lastRef[id] < time - tau;
+            if (time >= tau) {
+                int expired = recent[cursor];
+                if (expired != id && lastRef[expired] == time - tau) size--;
+            }
+            if (fault) size++;
+            lastRef[id] = time++;
+            recent[cursor] = id;
+            if (++cursor == tau) cursor = 0;
+            return fault;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    // Page-fault-frequency allocator: the resident set grows by one page per fault
+    // and shrinks, at a fault arriving more than threshold references after the
+    // previous one, to the pages referenced since that previous fault
+    private static final class PffFrames implements ReplacementPolicy {
+        private final long threshold;
+        private final PageIndex ids = new PageIndex(1024);
+        private long[] lastRef = new long[1024];
+        private int[] position = new int[1024]; // slot in resident, -1 when not resident
+        private int[] resident = new int[1024];
+        private int size = 0;
+        private long time = 0, lastFault = -1;
+
+        PffFrames(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean access(int page) {
+            int id = ids.get(page);
+            if (id < 0) {
+                id = ids.size();
+                ids.put(page, id);
+                if (id == lastRef.length) {
+                    lastRef = Arrays.copyOf(lastRef, id * 2);
+                    position = Arrays.copyOf(position, id * 2);
+                    resident = Arrays.copyOf(resident, id * 2);
+                }
+                position[id] = -1;
+            }
+            long now = time++;
+            if (position[id] >= 0) {
+                lastRef[id] = now;
+                return false;
+            }
+            if (now - lastFault > threshold) {
+                for (int i = size - 1; i >= 0; i--) {
+                    int r = resident[i];
+                    if (lastRef[r] >= lastFault) continue;
+                    position[r] = -1;
+                    int last = resident[--size];
+                    resident[i] = last;
+                    if (last != r) position[last] = i;
+                }
+            }
+            position[id] = size;
+            resident[size++] = id;
+            lastRef[id] = now;
+            lastFault = now;
+            return true;
+        }
+
+        @Override
+        public boolean resident(int page) {
+            int id = ids.get(page);
+            return id >= 0 && position[id] >= 0;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    // Fixed-size single-producer ring of time-series records. A writer thread drains
+    // it to CSV, so the replay loop only pays for a few array stores per window and
+    // waits on I/O only when the writer falls a full ring behind.
+    private static final class SeriesRing implements Closeable {
+        private final String[] names;
+        private final int mask;
+        private final byte[] policy;
+        private final long[] window, end;
+        private final int[] length, faults, resident, workingSet;
+        private final BufferedWriter out;
+        private final Thread writer;
+        private volatile long head = 0; // next record to fill, written only by the producer
+        private volatile long tail = 0; // next record to drain, written only by the writer
+        private volatile boolean closed = false;
+        private volatile IOException failure;
+
+        SeriesRing(Path path, int capacity, String[] names) throws IOException {
+            int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.names = names;
+            mask = cap - 1;
+            policy = new byte[cap];
+            window = new long[cap];
+            end = new long[cap];
+            length = new int[cap];
+            faults = new int[cap];
+            resident = new int[cap];
+            workingSet = new int[cap];
+            out = Files.newBufferedWriter(path);
+            out.write("policy,window,end,references,faults,fault_rate,resident,working_set\n");
+            writer = new Thread(this::drain, "series-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void add(int p, long w, long e, int refs, int f, int res, int wss) {
+            long h = head;
+            while (h - tail > mask) {
+                if (failure != null) throw new UncheckedIOException(failure);
+                LockSupport.parkNanos(10_000);
+            }
+            int i = (int) h & mask;
+            policy[i] = (byte) p;
+            window[i] = w;
+            end[i] = e;
+            length[i] = refs;
+            faults[i] = f;
+            resident[i] = res;
+            workingSet[i] = wss;
+            head = h + 1; // volatile store publishes the slot to the writer
+        }
+
+        private void drain() {
+            DecimalFormat rate = new DecimalFormat("0.######");
+            StringBuilder line = new StringBuilder(96);
+            try {
+                while (true) {
+                    long t = tail;
+                    if (t == head) {
+                        if (closed && t == head) break;
+                        LockSupport.parkNanos(100_000);
+                        continue;
+                    }
+                    int i = (int) t & mask;
+                    line.setLength(0);
+                    line.append(names[policy[i]]).append(',').append(window[i]).append(',').append(end[i])
+                            .append(',').append(length[i]).append(',').append(faults[i]).append(',')
+                            .append(rate.format(faults[i] / (double) length[i])).append(',')
+                            .append(resident[i]).append(',').append(workingSet[i]).append('\n');
+                    tail = t + 1;
+                    out.append(line);
+                }
+                out.flush();
+            } catch (IOException e) {
+                failure = e;
+                tail = Long.MAX_VALUE / 2; // unblock a waiting producer
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                out.close();
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    enum TraceFormat { TEXT, INT32, INT64, COMPACT }
+
+    // Opens one more pass over the same references
+    private interface TraceOpener {
+        TraceReader open() throws IOException;
+    }
+
+    // A stream of page references that knows how many it has handed out
+    private interface TraceReader extends PrimitiveIterator.OfInt, Closeable {
+        long count();
+    }
+
+    // In-memory trace behind the streaming interface
+    private static final class ArrayTrace implements TraceReader {
+        private final int[] refs;
+        private int pos = 0;
+
+        ArrayTrace(int[] refs) {
+            this.refs = refs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pos < refs.length;
+        }
+
+        @Override
+        public int nextInt() {
+            if (pos == refs.length) throw new NoSuchElementException();
+            return refs[pos++];
+        }
+
+        @Override
+        public long count() {
+            return pos;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Lazy, seeded reference generator. A spec is phases separated by '/', each a
+    // '+'-joined mixture of weighted sources lasting '@' references, for example
+    //   zipf:pages=4096,s=0.99@1M/0.7*loop:pages=512+0.3*scan@200K
+    // Sources: uniform, zipf (rejection-inversion, Hormann and Derflinger; any s > 0,
+    // rank 1 is page base), scan (fresh pages from base upward) and loop (base ..
+    // base + pages - 1 cyclically). All take pages (default 65536) and base
+    // (default 0); zipf also takes s (default 1). Phases repeat in order until
+    // length references have been produced; a phase without '@' runs to the end.
+    // nextInt() only touches primitive state, so replays never allocate.
+    private static final class WorkloadGenerator implements TraceReader {
+        private static final int UNIFORM = 0, ZIPF = 1, SCAN = 2, LOOP = 3;
+
+        private final SplittableRandom random;
+        private final long length;
+        private final long[] phaseLengths;
+        private final int[] phaseStart; // first source of each phase, then the source count
+        private final double[] cumulative; // cumulative weight of each source within its phase
+        private final int[] kind, pages, base;
+        private final long[] cursor; // next offset of scan and loop sources
+        private final double[] exponent, hIntegralX1, hIntegralN, cut; // zipf constants
+        private long produced = 0, phaseLeft;
+        private int phase = 0;
+
+        WorkloadGenerator(String spec, long length, long seed) {
+            String[] phases = spec.toLowerCase().split("/");
+            int sources = 0;
+            for (String p : phases) sources += p.split("@")[0].split("\\+").length;
+            random = new SplittableRandom(seed);
+            this.length = length;
+            phaseLengths = new long[phases.length];
+            phaseStart = new int[phases.length + 1];
+            cumulative = new double[sources];
+            kind = new int[sources];
+            pages = new int[sources];
+            base = new int[sources];
+            cursor = new long[sources];
+            exponent = new double[sources];
+            hIntegralX1 = new double[sources];
+            hIntegralN = new double[sources];
+            cut = new double[sources];
+
+            int s = 0;
+            for (int p = 0; p < phases.length; p++) {
+                int at = phases[p].indexOf('@');
+                phaseLengths[p] = at < 0 ? Long.MAX_VALUE : parseCount(phases[p].substring(at + 1));
+                if (phaseLengths[p] < 1) throw new IllegalArgumentException("empty phase in " + spec);
+                phaseStart[p] = s;
+                double weights = 0;
+                for (String term : (at < 0 ? phases[p] : phases[p].substring(0, at)).split("\\+")) {
+                    int star = term.indexOf('*');
+                    weights += star < 0 ? 1 : Double.parseDouble(term.substring(0, star));
+                    cumulative[s] = weights;
+                    source(s++, term.substring(star + 1));
+                }
+                for (int i = phaseStart[p]; i < s; i++) cumulative[i] /= weights;
+            }
+            phaseStart[phases.length] = s;
+            phaseLeft = phaseLengths[0];
+        }
+
+        // Parse name[:key=value,...] into source slot s
+        private void source(int s, String term) {
+            int colon = term.indexOf(':');
+            String name = colon < 0 ? term : term.substring(0, colon);
+            pages[s] = 1 << 16;
+            exponent[s] = 1;
+            if (colon >= 0) {
+                for (String param : term.substring(colon + 1).split(",")) {
+                    int eq = param.indexOf('=');
+                    String key = param.substring(0, eq), value = param.substring(eq + 1);
+                    switch (key) {
+                        case "pages": pages[s] = Math.toIntExact(parseCount(value)); break;
+                        case "base": base[s] = Math.toIntExact(parseCount(value)); break;
+                        case "s": exponent[s] = Double.parseDouble(value); break;
+                        default: throw new IllegalArgumentException("unknown parameter " + key + " in " + term);
+                    }
+                }
+            }
+            if (pages[s] < 1 || !(exponent[s] > 0)) throw new IllegalArgumentException("bad parameters in " + term);
+            switch (name) {
+                case "uniform": kind[s] = UNIFORM; break;
+                case "zipf":
+                    kind[s] = ZIPF;
+                    double q = exponent[s];
+                    hIntegralX1[s] = hIntegral(1.5, q) - 1;
+                    hIntegralN[s] = hIntegral(pages[s] + 0.5, q);
+                    cut[s] = 2 - hIntegralInverse(hIntegral(2.5, q) - h(2, q), q);
+                    break;
+                case "scan": kind[s] = SCAN; break;
+                case "loop": kind[s] = LOOP; break;
+                default: throw new IllegalArgumentException("unknown source " + name);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return produced < length;
+        }
+
+        @Override
+        public int nextInt() {
+            if (produced == length) throw new NoSuchElementException();
+            produced++;
+            if (phaseLeft == 0) {
+                if (++phase == phaseLengths.length) phase = 0;
+                phaseLeft = phaseLengths[phase];
+            }
+            phaseLeft--;
+            int s = phaseStart[phase], last = phaseStart[phase + 1] - 1;
+            if (s < last) {
+                double u = random.nextDouble();
+                while (s < last && u >= cumulative[s]) s++;
+            }
+            switch (kind[s]) {
+                case UNIFORM:
+                    return base[s] + random.nextInt(pages[s]);
+                case ZIPF:
+                    return base[s] + zipf(s) - 1;
+                case SCAN:
+                    return (int) (base[s] + cursor[s]++);
+                default:
+                    long offset = cursor[s];
+                    cursor[s] = offset + 1 == pages[s] ? 0 : offset + 1;
+                    return base[s] + (int) offset;
+            }
+        }
+
+        // Rank in [1, pages] with probability proportional to rank^-s
+        private int zipf(int s) {
+            double q = exponent[s];
+            while (true) {
+                double u = hIntegralN[s] + random.nextDouble() * (hIntegralX1[s] - hIntegralN[s]);
+                double x = hIntegralInverse(u, q);
+                int k = (int) (x + 0.5);
+                if (k < 1) k = 1;
+                else if (k > pages[s]) k = pages[s];
+                if (k - x <= cut[s] || u >= hIntegral(k + 0.5, q) - h(k, q)) return k;
+            }
+        }
+
+        private static double h(double x, double q) {
+            return Math.exp(-q * Math.log(x));
+        }
+
+        // Antiderivative of h, (x^(1-q) - 1) / (1 - q), stable around q = 1
+        private static double hIntegral(double x, double q) {
+            double logX = Math.log(x);
+            return expm1OverX((1 - q) * logX) * logX;
+        }
+
+        private static double hIntegralInverse(double x, double q) {
+            double t = Math.max(-1, x * (1 - q));
+            return Math.exp(log1pOverX(t) * x);
+        }
+
+        private static double log1pOverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        private static double expm1OverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+
+        @Override
+        public long count() {
+            return produced;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Streams page references from a trace file through fixed-size mapped windows,
+    // so heap use is constant in the file size. TEXT is decimal page numbers separated
+    // by whitespace or commas; INT32/INT64 are little-endian binary records.
+    private static final class MappedTrace implements TraceReader {
+        private static final long WINDOW = 64L << 20; // multiple of every record size
+
+        private final FileChannel channel;
+        private final TraceFormat format;
+        private final long size;
+        private long windowEnd = 0; // file offset just past the mapped window
+        private MappedByteBuffer window;
+        private boolean ready = false; // next value parsed but not yet returned
+        private int value;
+        private long count = 0;
+        private long line = 1; // TEXT only, for error messages
+
+        MappedTrace(Path path, TraceFormat format) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.format = format;
+            this.size = channel.size();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready) ready = advance();
+            return ready;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ready = false;
+            count++;
+            return value;
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        private boolean advance() {
+            switch (format) {
+                case INT32:
+                    if (!fill(4)) return false;
+                    value = window.getInt();
+                    return true;
+                case INT64:
+                    if (!fill(8)) return false;
+                    long record = window.getLong();
+                    if (record != (int) record) {
+                        throw new IllegalStateException("page number " + record + " out of int range in record " + (count + 1));
+                    }
+                    value = (int) record;
+                    return true;
+                case TEXT:
+                    return parseText();
+                default:
+                    throw new IllegalArgumentException(format + " is not a mapped format");
+            }
+        }
+
+        // Make sure the window holds at least one record of the given width
+        private boolean fill(int width) {
+            if (window != null && window.remaining() >= width) return true;
+            if (window != null && window.hasRemaining()) {
+                throw new IllegalStateException("trailing partial record at offset " + (windowEnd - window.remaining()));
+            }
+            if (windowEnd >= size) return false;
+            map();
+            return fill(width);
+        }
+
+        // Byte-at-a-time number parser; state lives in locals so numbers may span windows
+        private boolean parseText() {
+            int b;
+            do {
+                b = nextByte();
+                if (b == -1) return false;
+                if (b == '\n') line++;
+            } while (b == ' ' || b == ',' || b == '\n' || b == '\r' || b == '\t');
+
+            boolean negative = b == '-';
+            if (negative) b = nextByte();
+            long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+            long v = 0;
+            int digits = 0;
+            while (b >= '0' && b <= '9') {
+                v = v * 10 + (b - '0');
+                if (v > limit) throw new IllegalStateException("page number out of int range at line " + line);
+                digits++;
+                b = nextByte();
+            }
+            if (digits == 0 || (b != -1 && b != ' ' && b != ',' && b != '\n' && b != '\r' && b != '\t')) {
+                throw new IllegalStateException("malformed trace at line " + line + " (offset " + position() + ")");
+            }
+            value = (int) (negative ? -v : v);
+            if (b == '\n') line++;
+            return true;
+        }
+
+        private int nextByte() {
+            if (window == null || !window.hasRemaining()) {
+                if (windowEnd >= size) return -1;
+                map();
+            }
+            return window.get() & 0xFF;
+        }
+
+        private void map() {
+            long start = windowEnd;
+            long length = Math.min(WINDOW, size - start);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowEnd = start + length;
+        }
+
+        private long position() {
+            return window == null ? 0 : windowEnd - window.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Compact trace layout (little-endian):
+    //   header  magic "PGTZ", version, refs per block
+    //   blocks  zigzag(page - previous page) as unsigned varints; each block
+    //           restarts from 0 so it decodes on its own
+    //   index   per block: file offset (long), reference count (int)
+    //   footer  index offset (long), block count (int), total refs (long), magic
+    private static final int COMPACT_MAGIC = 0x5A544750; // "PGTZ"
+    private static final int COMPACT_VERSION = 1;
+    private static final int COMPACT_HEADER = 12;
+    private static final int COMPACT_FOOTER = 24;
+
+    private static final class CompactTraceWriter implements Closeable {
+        static final int BLOCK_REFS = 1 << 16;
+
+        private final FileChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long flushed = 0; // file offset of out's first byte
+        private long[] blockOffsets = new long[64];
+        private int[] blockCounts = new int[64];
+        private int blocks = 0;
+        private int inBlock = 0;
+        private int previous;
+        private long total = 0;
+
+        CompactTraceWriter(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            out.putInt(COMPACT_MAGIC).putInt(COMPACT_VERSION).putInt(BLOCK_REFS);
+        }
+
+        void write(int page) throws IOException {
+            if (inBlock == 0) {
+                if (blocks == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+                    blockCounts = Arrays.copyOf(blockCounts, blocks * 2);
+                }
+                blockOffsets[blocks++] = flushed + out.position();
+                previous = 0;
+            }
+            if (out.remaining() < 5) flush();
+            int delta = page - previous;
+            int v = (delta << 1) ^ (delta >> 31);
+            while ((v & ~0x7F) != 0) {
+                out.put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.put((byte) v);
+            previous = page;
+            total++;
+            blockCounts[blocks - 1] = ++inBlock;
+            if (inBlock == BLOCK_REFS) inBlock = 0;
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) flushed += channel.write(out);
+            out.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            long indexOffset = flushed + out.position();
+            for (int b = 0; b < blocks; b++) {
+                if (out.remaining() < 12) flush();
+                out.putLong(blockOffsets[b]).putInt(blockCounts[b]);
+            }
+            if (out.remaining() < COMPACT_FOOTER) flush();
+            out.putLong(indexOffset).putInt(blocks).putLong(total).putInt(COMPACT_MAGIC);
+            flush();
+            channel.close();
+        }
+    }
+
+    // Sequential or block-seekable reader for the compact format; decodes one block
+    // at a time into a reusable int buffer
+    private static final class CompactTrace implements TraceReader {
+        private final FileChannel channel;
+        private final int blockRefs;
+        private final long[] offsets; // block -> file offset, plus the index offset as an end marker
+        private final int[] counts;
+        private final long[] starts;  // block -> ordinal of its first reference
+        private final long size;
+        private final ByteBuffer bytes;
+        private final int[] block;
+        private int blockLength = 0, pos = 0, nextBlock = 0;
+        private long count = 0;
+
+        CompactTrace(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            ByteBuffer head = ByteBuffer.allocate(COMPACT_FOOTER).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(head.limit(COMPACT_HEADER), 0);
+            if (head.getInt(0) != COMPACT_MAGIC || head.getInt(4) != COMPACT_VERSION) {
+                throw new IOException(path + " is not a compact trace");
+            }
+            blockRefs = head.getInt(8);
+            readFully(head.clear(), channel.size() - COMPACT_FOOTER);
+            if (head.getInt(20) != COMPACT_MAGIC) throw new IOException(path + " has no compact trace footer");
+            long indexOffset = head.getLong(0);
+            int blocks = head.getInt(8);
+            size = head.getLong(12);
+
+            ByteBuffer index = ByteBuffer.allocate(blocks * 12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(index, indexOffset);
+            offsets = new long[blocks + 1];
+            counts = new int[blocks];
+            starts = new long[blocks];
+            int maxBytes = 0;
+            for (int b = 0; b < blocks; b++) {
+                offsets[b] = index.getLong(b * 12);
+                counts[b] = index.getInt(b * 12 + 8);
+                if (b > 0) starts[b] = starts[b - 1] + counts[b - 1];
+            }
+            offsets[blocks] = indexOffset;
+            for (int b = 0; b < blocks; b++) maxBytes = (int) Math.max(maxBytes, offsets[b + 1] - offsets[b]);
+            bytes = ByteBuffer.allocateDirect(Math.max(1, maxBytes));
+            block = new int[blockRefs];
+        }
+
+        int blockRefs() {
+            return blockRefs;
+        }
+
+        int blockCount() {
+            return counts.length;
+        }
+
+        long blockStart(int b) {
+            return starts[b];
+        }
+
+        long size() {
+            return size;
+        }
+
+        // Decode block b into out, return its reference count
+        int decodeBlock(int b, int[] out) throws IOException {
+            readFully(bytes.clear().limit((int) (offsets[b + 1] - offsets[b])), offsets[b]);
+            bytes.flip();
+            int previous = 0;
+            for (int i = 0, n = counts[b]; i < n; i++) {
+                int v = 0, shift = 0, x;
+                do {
+                    x = bytes.get();
+                    v |= (x & 0x7F) << shift;
+                    shift += 7;
+                } while (x < 0);
+                previous += (v >>> 1) ^ -(v & 1);
+                out[i] = previous;
+            }
+            return counts[b];
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pos == blockLength) {
+                if (nextBlock >= counts.length) return false;
+                try {
+                    blockLength = decodeBlock(nextBlock++, block);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) throw new NoSuchElementException();
+            count++;
+            return block[pos++];
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        private void readFully(ByteBuffer buf, long offset) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) throw new EOFException();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
     }
 }
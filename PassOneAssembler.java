@@ -1,4 +1,27 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 class PassOneAssembler {
     static class Symbol {
@@ -19,7 +42,483 @@ class PassOneAssembler {
         }
     }
 
-    public static void main(String[] args) {
+    // Open-addressing map from names to ints, probed straight from a char range
+    // so lookups never build a String; a String is made once per new name
+    static class NameIndex {
+        private String[] keys = new String[16];
+        private int[] values = new int[16];
+        private int size = 0;
+        boolean counting; // keep lookups, probes and maxProbe for the metrics
+        long lookups, probes;
+        int maxProbe;
+
+        // Value stored for the name in b[from, to), or -1
+        int get(char[] b, int from, int to) {
+            int mask = keys.length - 1, probe = 1;
+            for (int i = hash(b, from, to) & mask; keys[i] != null; i = (i + 1) & mask, probe++) {
+                if (matches(keys[i], b, from, to)) {
+                    if (counting) probed(probe);
+                    return values[i];
+                }
+            }
+            if (counting) probed(probe);
+            return -1;
+        }
+
+        // The stored String for the name, inserting it with value if it is new
+        String intern(char[] b, int from, int to, int value) {
+            return store(b, from, to, value, false);
+        }
+
+        // Like intern, but a name already present gets the new value too
+        String put(char[] b, int from, int to, int value) {
+            return store(b, from, to, value, true);
+        }
+
+        private String store(char[] b, int from, int to, int value, boolean replace) {
+            int mask = keys.length - 1, probe = 1;
+            int i = hash(b, from, to) & mask;
+            for (; keys[i] != null; i = (i + 1) & mask, probe++) {
+                if (matches(keys[i], b, from, to)) {
+                    if (counting) probed(probe);
+                    if (replace) values[i] = value;
+                    return keys[i];
+                }
+            }
+            if (counting) probed(probe);
+            String key = new String(b, from, to - from);
+            keys[i] = key;
+            values[i] = value;
+            if (2 * ++size > keys.length) grow();
+            return key;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void probed(int probe) {
+            lookups++;
+            probes += probe;
+            maxProbe = Math.max(maxProbe, probe);
+        }
+
+        // String.hashCode of the range, mixed so that names differing only in
+        // their last characters (L1, L2, ...) do not land in one probe run
+        private static int hash(char[] b, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) h = 31 * h + b[i];
+            return mix(h);
+        }
+
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean matches(String key, char[] b, int from, int to) {
+            if (key.length() != to - from) return false;
+            for (int i = from; i < to; i++) {
+                if (key.charAt(i - from) != b[i]) return false;
+            }
+            return true;
+        }
+
+        private void grow() {
+            String[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new String[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == null) continue;
+                int h = oldKeys[j].hashCode();
+                int i = mix(h) & mask;
+                while (keys[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // Symbols in definition order, hashed by name for O(1) lookup. Every name also
+    // gets an id the first time it is mentioned, defined or not, which is how the
+    // intermediate code refers to it. A label defined twice keeps both entries in
+    // the listing; lookups see the first definition.
+    static class SymbolTable implements Iterable<Symbol> {
+        private final List<Symbol> order = new ArrayList<>();
+        private final List<Symbol> byId = new ArrayList<>(); // address -1 until defined
+        private final BitSet defined = new BitSet();
+        private final NameIndex index = new NameIndex();
+
+        void add(char[] b, int from, int to, int address) {
+            int id = reference(b, from, to);
+            Symbol s = byId.get(id);
+            if (defined.get(id)) {
+                s = new Symbol(s.name, address);
+            } else {
+                s.address = address;
+                defined.set(id);
+            }
+            order.add(s);
+        }
+
+        // Id of the name, entering it undefined if this is its first mention
+        int reference(char[] b, int from, int to) {
+            String name = index.intern(b, from, to, byId.size());
+            if (index.size() > byId.size()) byId.add(new Symbol(name, -1));
+            return index.get(b, from, to);
+        }
+
+        Symbol get(char[] b, int from, int to) {
+            int id = index.get(b, from, to);
+            return id < 0 || !defined.get(id) ? null : byId.get(id);
+        }
+
+        Symbol byId(int id) {
+            return byId.get(id);
+        }
+
+        int ids() {
+            return byId.size();
+        }
+
+        int size() {
+            return order.size();
+        }
+
+        public Iterator<Symbol> iterator() {
+            return order.iterator();
+        }
+    }
+
+    // Literals in order of appearance. Equal literal text shares one interned
+    // String, and the pending literals are always the tail of the table, so
+    // LTORG/END place them without rescanning earlier pools. The index maps each
+    // text to its latest entry, so a literal repeated within one pool reuses
+    // that pool's entry and every literal costs O(1) however many pools there are.
+    static class LiteralTable implements Iterable<Literal> {
+        private final List<Literal> entries = new ArrayList<>();
+        private final NameIndex interned = new NameIndex();
+        int pending = 0; // first literal without an address
+
+        // Index of the literal's entry in the current pool, added if it has none
+        int add(char[] b, int from, int to) {
+            int latest = interned.get(b, from, to);
+            if (latest >= pending) return latest;
+            entries.add(new Literal(interned.put(b, from, to, entries.size()), -1));
+            return entries.size() - 1;
+        }
+
+        // Give every pending literal the next address from LC; returns the new LC
+        int assign(int LC) {
+            for (; pending < entries.size(); pending++)
+                entries.get(pending).address = LC++;
+            return LC;
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        Literal get(int i) {
+            return entries.get(i);
+        }
+
+        public Iterator<Literal> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    static class Opcode {
+        String mnemonic;
+        String type; // IS imperative, AD assembler directive, DL declarative
+        int code;
+        Opcode(String mnemonic, String type, int code) {
+            this.mnemonic = mnemonic;
+            this.type = type;
+            this.code = code;
+        }
+    }
+
+    // Mnemonic opcode table: every IS, AD and DL mnemonic, indexed by name into OPCODES
+    static final List<Opcode> OPCODES = new ArrayList<>();
+    static final NameIndex MOT = new NameIndex();
+    static {
+        String[] is = {"STOP", "ADD", "SUB", "MULT", "MOVER", "MOVEM", "COMP", "BC", "DIV", "READ", "PRINT"};
+        for (int i = 0; i < is.length; i++)
+            OPCODES.add(new Opcode(is[i], "IS", i));
+        String[] ad = {"START", "END", "ORIGIN", "EQU", "LTORG"};
+        for (int i = 0; i < ad.length; i++)
+            OPCODES.add(new Opcode(ad[i], "AD", i + 1));
+        OPCODES.add(new Opcode("DC", "DL", 1));
+        OPCODES.add(new Opcode("DS", "DL", 2));
+        for (int i = 0; i < OPCODES.size(); i++) {
+            char[] name = OPCODES.get(i).mnemonic.toCharArray();
+            MOT.intern(name, 0, name.length, i);
+        }
+    }
+
+    // Register operands of the arithmetic and move instructions, and BC condition
+    // codes, which go in the same slot. Each table is only consulted for the
+    // mnemonics that take it, so a label may share a name with the other.
+    static final NameIndex REGISTERS = new NameIndex();
+    static final NameIndex CONDITIONS = new NameIndex();
+    static {
+        String[] registers = {"AREG", "BREG", "CREG", "DREG"};
+        for (int i = 0; i < registers.length; i++) {
+            char[] name = registers[i].toCharArray();
+            REGISTERS.intern(name, 0, name.length, i + 1);
+        }
+        String[] conditions = {"LT", "LE", "EQ", "GT", "GE", "ANY"};
+        for (int i = 0; i < conditions.length; i++) {
+            char[] name = conditions[i].toCharArray();
+            CONDITIONS.intern(name, 0, name.length, i + 1);
+        }
+    }
+
+    // The table for the first operand of an IS mnemonic, or null if it takes neither
+    static NameIndex firstOperand(Opcode o) {
+        if (!o.type.equals("IS")) return null;
+        switch (o.mnemonic) {
+            case "BC": return CONDITIONS;
+            case "STOP": case "READ": case "PRINT": return null;
+            default: return REGISTERS;
+        }
+    }
+
+    // Intermediate code: one fixed 16-byte little-endian record per statement
+    // holding address (-1 for directives), class, opcode, register, operand kind,
+    // operand (symbol id, literal index or constant) and offset
+    static final int IC_RECORD = 16;
+    static final byte IS = 1, AD = 2, DL = 3;
+    static final byte NONE = 0, SYMBOL = 1, LITERAL = 2, CONSTANT = 3;
+
+    static class IcWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(4096 * IC_RECORD).order(ByteOrder.LITTLE_ENDIAN);
+
+        IcWriter(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        }
+
+        void emit(int address, byte type, int code, int register, byte kind, int operand, int offset) {
+            if (buffer.remaining() < IC_RECORD) flush();
+            buffer.putInt(address).put(type).put((byte) code).put((byte) register).put(kind)
+                    .putInt(operand).putInt(offset);
+        }
+
+        private void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    static class Tables {
+        SymbolTable SYMTAB = new SymbolTable();
+        LiteralTable LITTAB = new LiteralTable();
+        List<Integer> POOLTAB = new ArrayList<>();
+        int start, end; // START address and the LC after the last line
+    }
+
+    // Pass-one counters: lines and time per mnemonic, SYMTAB and LITTAB probe
+    // lengths and final table sizes. A pass keeps them only when --metrics is
+    // given or a JFR recording with these events is running at startup, so an
+    // ordinary run pays one null check per line. Each pass owns its counters,
+    // so the parallel passes of --link never share them.
+    static class Metrics {
+        static boolean on;
+        static final List<Metrics> passes = Collections.synchronizedList(new ArrayList<>());
+
+        String source = "embedded";
+        final long[] lines = new long[OPCODES.size() + 1]; // last slot: labels and unknown mnemonics
+        final long[] nanos = new long[OPCODES.size() + 1];
+        final PassOneEvent event = new PassOneEvent();
+        final Tables tables;
+
+        Metrics(Tables tables) {
+            this.tables = tables;
+            tables.SYMTAB.index.counting = true;
+            tables.LITTAB.interned.counting = true;
+            event.begin();
+            passes.add(this);
+        }
+
+        void line(int op, long elapsed) {
+            int slot = op < 0 ? lines.length - 1 : op;
+            lines[slot]++;
+            nanos[slot] += elapsed;
+        }
+
+        void finish() {
+            event.end();
+            if (!event.shouldCommit()) return;
+            NameIndex symbols = tables.SYMTAB.index, literals = tables.LITTAB.interned;
+            event.source = source;
+            event.lines = Arrays.stream(lines).sum();
+            event.symbols = tables.SYMTAB.size();
+            event.literals = tables.LITTAB.size();
+            event.pools = tables.POOLTAB.size();
+            event.symbolLookups = symbols.lookups;
+            event.symbolMaxProbe = symbols.maxProbe;
+            event.literalLookups = literals.lookups;
+            event.literalMaxProbe = literals.maxProbe;
+            event.commit();
+            for (int i = 0; i < lines.length; i++) {
+                if (lines[i] == 0) continue;
+                MnemonicEvent e = new MnemonicEvent();
+                e.source = source;
+                e.mnemonic = mnemonic(i);
+                e.lines = lines[i];
+                e.linesPerSecond = rate(lines[i], nanos[i]);
+                e.commit();
+            }
+        }
+
+        static String mnemonic(int slot) {
+            return slot < OPCODES.size() ? OPCODES.get(slot).mnemonic : "other";
+        }
+
+        static double rate(long lines, long nanos) {
+            return nanos == 0 ? 0 : lines * 1e9 / nanos;
+        }
+
+        // Every pass of the run as one JSON document
+        static void write(Path path) throws IOException {
+            StringBuilder json = new StringBuilder("{\"passes\": [");
+            synchronized (passes) {
+                for (int p = 0; p < passes.size(); p++) {
+                    Metrics m = passes.get(p);
+                    Tables t = m.tables;
+                    json.append(p == 0 ? "\n" : ",\n").append("  {\"source\": ");
+                    string(json, m.source);
+                    json.append(", \"lines\": ").append(Arrays.stream(m.lines).sum())
+                            .append(", \"linesPerSecond\": ").append(Math.round(rate(Arrays.stream(m.lines).sum(), Arrays.stream(m.nanos).sum())))
+                            .append(",\n   \"mnemonics\": {");
+                    String separator = "";
+                    for (int i = 0; i < m.lines.length; i++) {
+                        if (m.lines[i] == 0) continue;
+                        json.append(separator).append('"').append(mnemonic(i)).append("\": {\"lines\": ").append(m.lines[i])
+                                .append(", \"linesPerSecond\": ").append(Math.round(rate(m.lines[i], m.nanos[i]))).append('}');
+                        separator = ", ";
+                    }
+                    json.append("},\n   \"lookups\": {");
+                    lookups(json.append("\"SYMTAB\": "), t.SYMTAB.index);
+                    lookups(json.append(", \"LITTAB\": "), t.LITTAB.interned);
+                    json.append("},\n   \"sizes\": {\"SYMTAB\": ").append(t.SYMTAB.size())
+                            .append(", \"LITTAB\": ").append(t.LITTAB.size())
+                            .append(", \"POOLTAB\": ").append(t.POOLTAB.size()).append("}}");
+                }
+            }
+            Files.writeString(path, json.append("\n]}\n"));
+        }
+
+        static void lookups(StringBuilder json, NameIndex index) {
+            json.append("{\"lookups\": ").append(index.lookups).append(", \"meanProbe\": ")
+                    .append(index.lookups == 0 ? "0" : String.format(Locale.ROOT, "%.3f", (double) index.probes / index.lookups))
+                    .append(", \"maxProbe\": ").append(index.maxProbe).append('}');
+        }
+
+        static void string(StringBuilder json, String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') json.append('\\').append(c);
+                else if (c < ' ') json.append(String.format("\\u%04x", (int) c));
+                else json.append(c);
+            }
+            json.append('"');
+        }
+    }
+
+    @Name("assembler.PassOne")
+    @Label("Pass One")
+    @Category("Assembler")
+    static class PassOneEvent extends Event {
+        @Label("Source") String source;
+        @Label("Lines") long lines;
+        @Label("SYMTAB Size") int symbols;
+        @Label("LITTAB Size") int literals;
+        @Label("POOLTAB Size") int pools;
+        @Label("Symbol Lookups") long symbolLookups;
+        @Label("Longest Symbol Probe") int symbolMaxProbe;
+        @Label("Literal Lookups") long literalLookups;
+        @Label("Longest Literal Probe") int literalMaxProbe;
+    }
+
+    @Name("assembler.Mnemonic")
+    @Label("Lines per Mnemonic")
+    @Category("Assembler")
+    static class MnemonicEvent extends Event {
+        @Label("Source") String source;
+        @Label("Mnemonic") String mnemonic;
+        @Label("Lines") long lines;
+        @Label("Lines per Second") double linesPerSecond;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path metrics = null;
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--metrics")) metrics = Paths.get(args[i + 1]);
+        }
+        Metrics.on = metrics != null || new PassOneEvent().isEnabled();
+        boolean ok = run(args);
+        // --metrics out.json: per-pass counters as JSON
+        if (metrics != null) Metrics.write(metrics);
+        if (!ok) System.exit(1);
+    }
+
+    // Everything main does; false when a link has errors
+    static boolean run(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            // --bench [lines,...]: pass-one throughput on generated sources
+            runBench(args.length > 1 ? args[1].split(",") : new String[] {"1000", "10000", "100000"});
+            return true;
+        }
+        Path source = null, ic = null, state = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--metrics")) {
+                i++; // handled by main
+            } else if (args[i].equals("--link")) {
+                // --link a.asm b.asm ...: pass one per module in parallel, then link
+                List<Path> modules = new ArrayList<>();
+                while (++i < args.length) modules.add(Paths.get(args[i]));
+                return link(modules, threads);
+            } else if (args[i].equals("--pass-two")) {
+                // --pass-two out: machine code from out.ic and out.tab alone
+                passTwo(Paths.get(args[++i]));
+                return true;
+            } else if (args[i].equals("--incremental")) {
+                // --incremental state: reuse the previous run's checkpoints for file.asm
+                state = Paths.get(args[++i]);
+            } else if (args[i].equals("--ic")) {
+                // --ic out: also write intermediate code to out.ic and the tables to out.tab
+                ic = Paths.get(args[++i]);
+            } else {
+                source = Paths.get(args[i]); // PassOneAssembler file.asm: stream the source from disk
+            }
+        }
+
         String code[] = {
             "START 100",
             "A DS 3",
@@ -39,76 +538,805 @@ class PassOneAssembler {
             "END"
         };
 
+        if (state != null) {
+            if (source == null || ic != null) throw new IllegalArgumentException("--incremental needs a source file and no --ic");
+            print(incremental(source, state));
+            return true;
+        }
+        try (IcWriter writer = ic == null ? null : new IcWriter(sibling(ic, ".ic"))) {
+            Tables tables = source == null ? passOne(code, writer) : passOne(source, writer);
+            print(tables);
+            if (ic != null) writeTables(tables, sibling(ic, ".tab"));
+        }
+        return true;
+    }
+
+    static Path sibling(Path base, String extension) {
+        return base.resolveSibling(base.getFileName() + extension);
+    }
+
+    static void print(Tables tables) {
+        SymbolTable SYMTAB = tables.SYMTAB;
+        LiteralTable LITTAB = tables.LITTAB;
+        List<Integer> POOLTAB = tables.POOLTAB;
+
+        System.out.println("\nSYMBOL TABLE:");
+        for (Symbol s : SYMTAB)
+            System.out.println(s.name + "\t" + s.address);
+
+        System.out.println("\nLITERAL TABLE:");
+        for (Literal l : LITTAB)
+            System.out.println(l.value + "\t" + l.address);
+
+        System.out.println("\nPOOL TABLE:");
+        for (int p : POOLTAB)
+            System.out.println(p);
+    }
+
+    static Tables passOne(String[] code) {
+        return passOne(code, null);
+    }
+
+    static Tables passOne(String[] code, IcWriter ic) {
+        PassOne pass = new PassOne(ic);
+        for (String line : code)
+            pass.line(line);
+        return pass.finish();
+    }
+
+    // Read the source through a 1 MB buffer, one byte per char (assembly source
+    // is ASCII), cutting lines into a reused char buffer
+    static Tables passOne(Path source) throws IOException {
+        return passOne(source, null);
+    }
+
+    static Tables passOne(Path source, IcWriter ic) throws IOException {
+        PassOne pass = new PassOne(ic);
+        if (pass.metrics != null) pass.metrics.source = source.toString();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        byte[] bytes = buffer.array();
+        char[] line = new char[256];
+        int length = 0;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            for (int n; (n = channel.read(buffer.clear())) >= 0; ) {
+                for (int i = 0; i < n; i++) {
+                    byte c = bytes[i];
+                    if (c == '\n') {
+                        pass.line(line, 0, length);
+                        length = 0;
+                    } else {
+                        if (length == line.length) line = Arrays.copyOf(line, length * 2);
+                        line[length++] = (char) (c & 0xFF);
+                    }
+                }
+            }
+        }
+        if (length > 0) pass.line(line, 0, length);
+        return pass.finish();
+    }
+
+    // Pass one fed by a producer on another thread, e.g. a macro expander. Each
+    // buffer taken from full holds whole '\n'-terminated lines between position
+    // and limit, and goes back on free once its lines are assembled, so memory is
+    // bounded by the buffers in flight; an empty buffer ends the stream.
+    static Tables passOne(BlockingQueue<CharBuffer> full, BlockingQueue<CharBuffer> free)
+            throws InterruptedException {
+        PassOne pass = new PassOne(null);
+        for (CharBuffer chunk; (chunk = full.take()).hasRemaining(); ) {
+            char[] b = chunk.array();
+            int from = chunk.arrayOffset() + chunk.position(), to = chunk.arrayOffset() + chunk.limit();
+            for (int i = from; i < to; i++) {
+                if (b[i] == '\n') {
+                    pass.line(b, from, i);
+                    from = i + 1;
+                }
+            }
+            free.put(chunk);
+        }
+        return pass.finish();
+    }
+
+    // Pass one for every module concurrently, each into its own tables, then link:
+    // modules are laid out back to back from the first module's START, every
+    // defined symbol is exported and relocated by its module's load offset, and
+    // symbols defined twice or referenced but defined nowhere are reported.
+    // Returns false when the link has errors.
+    static boolean link(List<Path> modules, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, modules.size())));
+        Tables[] tables = new Tables[modules.size()];
+        try {
+            List<Future<Tables>> results = new ArrayList<>();
+            for (Path module : modules) results.add(pool.submit(() -> passOne(module)));
+            for (int m = 0; m < tables.length; m++) tables[m] = results.get(m).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while assembling modules", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        int[] load = new int[tables.length];
+        Map<String, Integer> exports = new HashMap<>(); // name -> defining module
+        List<String> linked = new ArrayList<>();
+        boolean ok = true;
+        System.out.println("\nMODULES:");
+        for (int m = 0, next = tables.length == 0 ? 0 : tables[0].start; m < tables.length; m++) {
+            load[m] = next;
+            next += tables[m].end - tables[m].start;
+            System.out.println(modules.get(m).getFileName() + "	" + load[m] + "	" + (tables[m].end - tables[m].start));
+            for (Symbol s : tables[m].SYMTAB) {
+                Integer previous = exports.putIfAbsent(s.name, m);
+                if (previous == null) {
+                    linked.add(s.name + "	" + (s.address - tables[m].start + load[m]));
+                } else {
+                    System.err.println("duplicate symbol " + s.name + " in " + modules.get(m).getFileName()
+                            + " (first defined in " + modules.get(previous).getFileName() + ")");
+                    ok = false;
+                }
+            }
+        }
+        for (int m = 0; m < tables.length; m++) {
+            SymbolTable SYMTAB = tables[m].SYMTAB;
+            for (int id = 0; id < SYMTAB.ids(); id++) {
+                String name = SYMTAB.byId(id).name;
+                if (SYMTAB.byId(id).address < 0 && !exports.containsKey(name)) {
+                    System.err.println("undefined symbol " + name + " referenced in " + modules.get(m).getFileName());
+                    ok = false;
+                }
+            }
+        }
+
+        System.out.println("\nLINKED SYMBOL TABLE:");
+        for (String entry : linked)
+            System.out.println(entry);
+        return ok;
+    }
+
+    static final int TABLES_MAGIC = 0x42543150; // "P1TB"
+
+    // Tables for pass two: magic, symbol and literal counts, then per symbol id its
+    // address (-1 if never defined) and ASCII name, per literal its address and value
+    static void writeTables(Tables tables, Path path) throws IOException {
+        SymbolTable SYMTAB = tables.SYMTAB;
+        LiteralTable LITTAB = tables.LITTAB;
+        long size = 12 + 8L * LITTAB.size();
+        for (int id = 0; id < SYMTAB.ids(); id++) size += 8 + SYMTAB.byId(id).name.length();
+        ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(size)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(TABLES_MAGIC).putInt(SYMTAB.ids()).putInt(LITTAB.size());
+        for (int id = 0; id < SYMTAB.ids(); id++) {
+            Symbol s = SYMTAB.byId(id);
+            out.putInt(s.address).putInt(s.name.length());
+            for (int i = 0; i < s.name.length(); i++) out.put((byte) s.name.charAt(i));
+        }
+        for (Literal l : LITTAB) {
+            char[] text = l.value.toCharArray();
+            int end = text.length > 3 && text[text.length - 1] == '\'' ? text.length - 1 : text.length;
+            out.putInt(l.address).putInt(PassOne.parse(text, 2, end));
+        }
+        out.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) channel.write(out);
+        }
+    }
+
+    static final long IC_WINDOW = 1L << 26; // bytes of intermediate code mapped at a time
+
+    // Pass two: map the tables and the intermediate code and produce machine code
+    // in one sequential sweep of the records, without the source. Instructions and
+    // constants print as "address) + opcode register operand", DS as "address)".
+    static void passTwo(Path base) throws IOException {
+        int[] symbols, literalAddress, literalValue;
+        String[] names;
+        try (FileChannel channel = FileChannel.open(sibling(base, ".tab"), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != TABLES_MAGIC) throw new IOException(sibling(base, ".tab") + ": not a pass-one table file");
+            symbols = new int[in.getInt()];
+            names = new String[symbols.length];
+            literalAddress = new int[in.getInt()];
+            literalValue = new int[literalAddress.length];
+            for (int id = 0; id < symbols.length; id++) {
+                symbols[id] = in.getInt();
+                byte[] name = new byte[in.getInt()];
+                in.get(name);
+                names[id] = new String(name, java.nio.charset.StandardCharsets.ISO_8859_1);
+            }
+            for (int i = 0; i < literalAddress.length; i++) {
+                literalAddress[i] = in.getInt();
+                literalValue[i] = in.getInt();
+            }
+        }
+
+        BitSet reported = new BitSet();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        StringBuilder line = new StringBuilder(32);
+        try (FileChannel channel = FileChannel.open(sibling(base, ".ic"), StandardOpenOption.READ)) {
+            long size = channel.size() - channel.size() % IC_RECORD;
+            for (long position = 0; position < size; position += IC_WINDOW) {
+                MappedByteBuffer ic = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(IC_WINDOW, size - position));
+                ic.order(ByteOrder.LITTLE_ENDIAN);
+                while (ic.hasRemaining()) {
+                    int address = ic.getInt();
+                    byte type = ic.get();
+                    int code = ic.get(), register = ic.get();
+                    byte kind = ic.get();
+                    int operand = ic.getInt(), offset = ic.getInt();
+                    if (type == AD) continue;
+                    line.setLength(0);
+                    line.append(address).append(')');
+                    if (type == DL && code == 2) {
+                        out.append(line).append('\n');
+                        continue;
+                    }
+                    int value = 0;
+                    if (kind == SYMBOL) {
+                        if (symbols[operand] < 0 && !reported.get(operand)) {
+                            System.err.println("undefined symbol " + names[operand]);
+                            reported.set(operand);
+                        }
+                        value = Math.max(0, symbols[operand]) + offset;
+                    } else if (kind == LITERAL) {
+                        value = type == DL ? literalValue[operand] : literalAddress[operand];
+                    } else if (kind == CONSTANT) {
+                        value = operand;
+                    }
+                    line.append(" + ");
+                    pad(line, type == IS ? code : 0, 2).append(' ').append(type == IS ? register : 0).append(' ');
+                    pad(line, value, 3).append('\n');
+                    out.append(line);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    static StringBuilder pad(StringBuilder line, int value, int width) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) digits++;
+        for (; value >= 0 && digits < width; digits++) line.append('0');
+        return line.append(value);
+    }
+
+    // What incremental assembly keeps between runs: a fingerprint of every source
+    // line, the pass-one checkpoint before every line (LC, SYMTAB, LITTAB and
+    // POOLTAB sizes, literals still pending) plus one after the last, which lines
+    // ran EQU or ORIGIN, and the resulting tables
+    static class AssemblyState {
+        int lines;
+        long[] hashes;
+        int[] lc, symbols, literals, pools, pending;
+        BitSet equ = new BitSet();
+        Tables tables;
+
+        AssemblyState(int lines) {
+            this.lines = lines;
+            hashes = new long[lines];
+            lc = new int[lines + 1];
+            symbols = new int[lines + 1];
+            literals = new int[lines + 1];
+            pools = new int[lines + 1];
+            pending = new int[lines + 1];
+        }
+
+        void checkpoint(int line, PassOne pass) {
+            Tables t = pass.tables;
+            lc[line] = pass.LC;
+            symbols[line] = t.SYMTAB.size();
+            literals[line] = t.LITTAB.size();
+            pools[line] = t.POOLTAB.size();
+            pending[line] = t.LITTAB.size() - t.LITTAB.pending;
+        }
+    }
+
+    static final int STATE_MAGIC = 0x32493150; // "P1I2"
+
+    // Incremental pass one. The source is fingerprinted line by line against the
+    // previous run's state; pass one restarts from the checkpoint at the first
+    // changed line and runs until, somewhere in the unchanged tail, its state
+    // matches the old checkpoint for that line again: same LC and pending
+    // literals, and either no EQU or ORIGIN left in the tail or the same symbol
+    // definitions in the edited stretch. From there the old tail's table entries are spliced
+    // in, shifted by the change in table sizes, instead of being re-assembled.
+    static Tables incremental(Path source, Path statePath) throws IOException {
+        long started = System.nanoTime();
+        byte[] text = Files.readAllBytes(source);
+        int[] bounds = new int[1024]; // start of each line, then one past its end
+        int lines = 0;
+        for (int from = 0; from < text.length; ) {
+            int to = from;
+            while (to < text.length && text[to] != '\n') to++;
+            if (2 * lines + 2 > bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            bounds[2 * lines] = from;
+            bounds[2 * lines + 1] = to;
+            lines++;
+            from = to + 1;
+        }
+        AssemblyState state = new AssemblyState(lines);
+        for (int i = 0; i < lines; i++) state.hashes[i] = fingerprint(text, bounds[2 * i], bounds[2 * i + 1]);
+
+        AssemblyState old = Files.exists(statePath) ? readState(statePath) : null;
+        int first = 0, tail = 0;
+        if (old != null) {
+            int common = Math.min(old.lines, lines);
+            while (first < common && old.hashes[first] == state.hashes[first]) first++;
+            while (tail < common - first && old.hashes[old.lines - 1 - tail] == state.hashes[lines - 1 - tail]) tail++;
+        }
+        int shift = old == null ? 0 : old.lines - lines; // old line = new line + shift in the tail
+
+        PassOne pass = old == null ? new PassOne(null) : restore(old, first);
+        if (pass.metrics != null) pass.metrics.source = source.toString();
+        if (old != null) copyCheckpoints(old, 0, state, 0, first, 0, 0, 0);
+        char[] line = new char[256];
+        int j = first;
+        boolean spliced = false;
+        for (; ; j++) {
+            state.checkpoint(j, pass);
+            if (old != null && j >= lines - tail && converged(old, j + shift, state, j, first, pass.tables)) {
+                splice(old, j + shift, state, j, pass.tables);
+                spliced = true;
+                break;
+            }
+            if (j == lines) break;
+            int from = bounds[2 * j], to = bounds[2 * j + 1];
+            if (to - from > line.length) line = new char[Math.max(to - from, line.length * 2)];
+            for (int i = from; i < to; i++) line[i - from] = (char) (text[i] & 0xFF);
+            pass.line(line, 0, to - from);
+            if (pass.equ) state.equ.set(j);
+        }
+        state.tables = spliced ? pass.tables : pass.finish();
+        if (spliced && pass.metrics != null) pass.metrics.finish(); // spliced tables keep the old end
+        writeState(state, statePath);
+        System.err.println("incremental: " + lines + " lines, " + (j - first) + " re-assembled from line " + (first + 1)
+                + ", " + (spliced ? lines - j : 0) + " reused, " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        return state.tables;
+    }
+
+    // FNV-1a over the line's bytes
+    static long fingerprint(byte[] text, int from, int to) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = from; i < to; i++) h = (h ^ (text[i] & 0xFF)) * 0x100000001B3L;
+        return h;
+    }
+
+    // A pass one positioned at the old checkpoint before line first, rebuilt from
+    // the old tables; literals still pending there lose their old addresses
+    static PassOne restore(AssemblyState old, int first) {
+        PassOne pass = new PassOne(null);
+        Tables t = pass.tables, o = old.tables;
+        t.POOLTAB.clear();
+        t.POOLTAB.addAll(o.POOLTAB.subList(0, old.pools[first]));
+        for (int i = 0; i < old.symbols[first]; i++) {
+            Symbol s = o.SYMTAB.order.get(i);
+            t.SYMTAB.add(s.name.toCharArray(), 0, s.name.length(), s.address);
+        }
+        int placed = old.literals[first] - old.pending[first];
+        for (int i = 0; i < old.literals[first]; i++) {
+            Literal l = o.LITTAB.get(i);
+            t.LITTAB.pending = i; // each old entry stays its own entry
+            t.LITTAB.add(l.value.toCharArray(), 0, l.value.length());
+            if (i < placed) t.LITTAB.get(i).address = l.address;
+        }
+        t.LITTAB.pending = placed;
+        t.start = o.start;
+        pass.LC = old.lc[first];
+        return pass;
+    }
+
+    static boolean converged(AssemblyState old, int oldLine, AssemblyState now, int line, int first, Tables t) {
+        if (now.lc[line] != old.lc[oldLine] || now.pending[line] != old.pending[oldLine]) return false;
+        // the tail dedups its literals against the pool pending here
+        for (int k = 1; k <= now.pending[line]; k++) {
+            if (!t.LITTAB.get(t.LITTAB.size() - k).value.equals(old.tables.LITTAB.get(old.literals[oldLine] - k).value)) return false;
+        }
+        if (old.equ.nextSetBit(oldLine) < 0) return true;
+        // EQU and ORIGIN in the tail look symbols up, so the edit must not have changed any definition
+        int from = now.symbols[first], count = now.symbols[line] - from;
+        if (count != old.symbols[oldLine] - old.symbols[first]) return false;
+        for (int i = 0; i < count; i++) {
+            Symbol a = t.SYMTAB.order.get(from + i), b = old.tables.SYMTAB.order.get(from + i);
+            if (a.address != b.address || !a.name.equals(b.name)) return false;
+        }
+        return true;
+    }
+
+    // Append the old tables from oldLine on, shifted to the new table sizes
+    static void splice(AssemblyState old, int oldLine, AssemblyState now, int line, Tables t) {
+        Tables o = old.tables;
+        int literalShift = t.LITTAB.size() - old.literals[oldLine];
+        // literals pending here were placed in the tail at the same addresses as before
+        for (int k = 1; k <= now.pending[line]; k++) {
+            t.LITTAB.get(t.LITTAB.size() - k).address = o.LITTAB.get(old.literals[oldLine] - k).address;
+        }
+        t.SYMTAB.order.addAll(o.SYMTAB.order.subList(old.symbols[oldLine], o.SYMTAB.size()));
+        t.LITTAB.entries.addAll(o.LITTAB.entries.subList(old.literals[oldLine], o.LITTAB.size()));
+        t.LITTAB.pending = o.LITTAB.pending + literalShift;
+        for (int p = old.pools[oldLine]; p < o.POOLTAB.size(); p++) t.POOLTAB.add(o.POOLTAB.get(p) + literalShift);
+        t.end = o.end;
+        copyCheckpoints(old, oldLine, now, line, old.lines + 1 - oldLine, t.SYMTAB.size() - o.SYMTAB.size(),
+                literalShift, t.POOLTAB.size() - o.POOLTAB.size());
+    }
+
+    static void copyCheckpoints(AssemblyState from, int fromLine, AssemblyState to, int toLine, int count,
+                                int symbolShift, int literalShift, int poolShift) {
+        for (int i = 0; i < count; i++) {
+            to.lc[toLine + i] = from.lc[fromLine + i];
+            to.symbols[toLine + i] = from.symbols[fromLine + i] + symbolShift;
+            to.literals[toLine + i] = from.literals[fromLine + i] + literalShift;
+            to.pools[toLine + i] = from.pools[fromLine + i] + poolShift;
+            to.pending[toLine + i] = from.pending[fromLine + i];
+        }
+        for (int i = from.equ.nextSetBit(fromLine); i >= 0 && i < fromLine + count; i = from.equ.nextSetBit(i + 1)) {
+            if (toLine + i - fromLine < to.lines) to.equ.set(toLine + i - fromLine);
+        }
+    }
+
+    // State file, little-endian: magic, line count, start, end, the fingerprints,
+    // the five checkpoint arrays, the EQU line bitmap, then SYMTAB as address and
+    // ASCII name, LITTAB as address and text, the pending literal index, POOLTAB
+    static void writeState(AssemblyState state, Path path) throws IOException {
+        Tables t = state.tables;
+        long[] equ = state.equ.toLongArray();
+        long size = 16 + 8L * state.lines + 20L * (state.lines + 1) + 4 + 8L * equ.length + 16 + 4L * t.POOLTAB.size();
+        for (Symbol s : t.SYMTAB) size += 8 + s.name.length();
+        for (Literal l : t.LITTAB) size += 8 + l.value.length();
+        ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(size)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(STATE_MAGIC).putInt(state.lines).putInt(t.start).putInt(t.end);
+        for (long h : state.hashes) out.putLong(h);
+        for (int[] array : new int[][] {state.lc, state.symbols, state.literals, state.pools, state.pending}) {
+            for (int v : array) out.putInt(v);
+        }
+        out.putInt(equ.length);
+        for (long w : equ) out.putLong(w);
+        out.putInt(t.SYMTAB.size());
+        for (Symbol s : t.SYMTAB) putName(out.putInt(s.address), s.name);
+        out.putInt(t.LITTAB.size());
+        for (Literal l : t.LITTAB) putName(out.putInt(l.address), l.value);
+        out.putInt(t.LITTAB.pending).putInt(t.POOLTAB.size());
+        for (int p : t.POOLTAB) out.putInt(p);
+        out.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) channel.write(out);
+        }
+    }
+
+    static void putName(ByteBuffer out, String name) {
+        out.putInt(name.length());
+        for (int i = 0; i < name.length(); i++) out.put((byte) name.charAt(i));
+    }
+
+    // The previous state, or null when the file is not a state file
+    static AssemblyState readState(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.remaining() < 16 || in.getInt() != STATE_MAGIC) return null;
+            AssemblyState state = new AssemblyState(in.getInt());
+            Tables t = state.tables = new Tables();
+            t.start = in.getInt();
+            t.end = in.getInt();
+            in.asLongBuffer().get(state.hashes);
+            in.position(in.position() + 8 * state.lines);
+            for (int[] array : new int[][] {state.lc, state.symbols, state.literals, state.pools, state.pending}) {
+                in.asIntBuffer().get(array);
+                in.position(in.position() + 4 * array.length);
+            }
+            long[] equ = new long[in.getInt()];
+            in.asLongBuffer().get(equ);
+            in.position(in.position() + 8 * equ.length);
+            state.equ = BitSet.valueOf(equ);
+            for (int i = in.getInt(); i > 0; i--) {
+                int address = in.getInt();
+                t.SYMTAB.order.add(new Symbol(getName(in), address));
+            }
+            for (int i = in.getInt(); i > 0; i--) {
+                int address = in.getInt();
+                t.LITTAB.entries.add(new Literal(getName(in), address));
+            }
+            t.LITTAB.pending = in.getInt();
+            for (int i = in.getInt(); i > 0; i--) t.POOLTAB.add(in.getInt());
+            return state;
+        } catch (java.nio.BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    static String getName(ByteBuffer in) {
+        byte[] name = new byte[in.getInt()];
+        in.get(name);
+        return new String(name, java.nio.charset.StandardCharsets.ISO_8859_1);
+    }
+
+    // Pass one, fed a line at a time. Each line is tokenized in place into
+    // [start, end) offsets of the caller's buffer, splitting on spaces, tabs,
+    // commas and CR; only new symbols and literals ever become Strings. With an
+    // IcWriter every statement also becomes one intermediate-code record.
+    static class PassOne {
+        final Tables tables = new Tables();
         int LC = 0;
-        List<Symbol> SYMTAB = new ArrayList<>();
-        List<Literal> LITTAB = new ArrayList<>();
-        List<Integer> POOLTAB = new ArrayList<>();
-        POOLTAB.add(0); // first pool starts at 0
+        private final IcWriter ic;
+        private char[] text = new char[256]; // copy of String lines
+        private int[] starts = new int[8], ends = new int[8];
+        private int count;
+        boolean equ; // the last line ran EQU or ORIGIN, the statements that look symbols up
+        final Metrics metrics = Metrics.on ? new Metrics(tables) : null;
 
-        for (String line : code) {
-            String parts[] = line.split(" ");
-            String op = parts[0];
+        PassOne(IcWriter ic) {
+            this.ic = ic;
+            tables.POOLTAB.add(0); // first pool starts at 0
+        }
+
+        Tables finish() {
+            tables.end = LC;
+            if (metrics != null) metrics.finish();
+            return tables;
+        }
+
+        void line(String line) {
+            if (line.length() > text.length) text = new char[Math.max(line.length(), text.length * 2)];
+            line.getChars(0, line.length(), text, 0);
+            line(text, 0, line.length());
+        }
+
+        void line(char[] b, int from, int to) {
+            long started = metrics == null ? 0 : System.nanoTime();
+            equ = false;
+            tokenize(b, from, to);
+            if (count == 0) return;
+            SymbolTable SYMTAB = tables.SYMTAB;
+            LiteralTable LITTAB = tables.LITTAB;
+            // label mnemonic operands, or mnemonic operands
+            int m = 0, op = MOT.get(b, starts[0], ends[0]);
+            if (op < 0 && count > 1) {
+                int next = MOT.get(b, starts[1], ends[1]);
+                if (next >= 0) {
+                    m = 1;
+                    op = next;
+                }
+            }
 
-            switch (op) {
+            switch (op < 0 ? "" : OPCODES.get(op).mnemonic) {
                 case "START":
-                    LC = Integer.parseInt(parts[1]);
+                    LC = tables.start = number(b, m + 1);
+                    if (m > 0) SYMTAB.add(b, starts[0], ends[0], LC);
+                    statement(b, m, op, -1);
                     break;
 
                 case "DS":
-                    SYMTAB.add(new Symbol(parts[0], LC));
-                    LC += Integer.parseInt(parts[1]);
+                    if (m > 0) SYMTAB.add(b, starts[0], ends[0], LC);
+                    statement(b, m, op, -1);
+                    LC += number(b, m + 1);
                     break;
 
                 case "DC":
-                    SYMTAB.add(new Symbol(parts[0], LC));
+                    if (m > 0) SYMTAB.add(b, starts[0], ends[0], LC);
+                    statement(b, m, op, -1);
                     LC++;
                     break;
 
-                case "EQU":
-                    for (Symbol s : SYMTAB) {
-                        if (s.name.equals(parts[2].split("\\+")[0])) {
-                            SYMTAB.add(new Symbol(parts[0], s.address + 1));
-                        }
-                    }
+                case "EQU": {
+                    // name EQU expression; skipped while a symbol in it is undefined
+                    equ = true;
+                    if (m == 0) throw new IllegalArgumentException("EQU without a name: " + new String(b, from, to - from));
+                    int value = expression(b, starts[need(b, m + 1)], ends[count - 1]);
+                    if (value != UNDEFINED) SYMTAB.add(b, starts[0], ends[0], value);
+                    break;
+                }
+
+                case "ORIGIN": {
+                    // LC moves to the expression, which must resolve here
+                    equ = true;
+                    if (m > 0) SYMTAB.add(b, starts[0], ends[0], LC);
+                    int value = expression(b, starts[need(b, m + 1)], ends[count - 1]);
+                    if (value == UNDEFINED) throw new IllegalArgumentException("undefined symbol in: " + new String(b, from, to - from));
+                    if (ic != null) ic.emit(-1, AD, OPCODES.get(op).code, 0, CONSTANT, value, 0);
+                    LC = value;
                     break;
+                }
 
                 case "LTORG":
-                case "END":
-                    for (Literal lit : LITTAB) {
-                        if (lit.address == -1) {
-                            lit.address = LC++;
-                        }
+                case "END": {
+                    if (m > 0) SYMTAB.add(b, starts[0], ends[0], LC);
+                    int pool = LITTAB.pending;
+                    if (ic != null) ic.emit(-1, AD, OPCODES.get(op).code, 0, NONE, 0, 0);
+                    LC = LITTAB.assign(LC);
+                    if (ic != null) {
+                        // the pool itself: one DC per literal at its new address
+                        for (int i = pool; i < LITTAB.size(); i++) ic.emit(LITTAB.get(i).address, DL, 1, 0, LITERAL, i, 0);
                     }
-                    POOLTAB.add(LITTAB.size());
+                    tables.POOLTAB.add(LITTAB.size());
                     break;
+                }
 
                 default:
-                    // if line has label at start
-                    if (!parts[0].matches("MOVER|ADD|MOVEM|PRINT|ORIGIN")) {
-                        SYMTAB.add(new Symbol(parts[0], LC));
-                    }
+                    // an instruction, or a line that is only a label
+                    if (m > 0 || op < 0) SYMTAB.add(b, starts[0], ends[0], LC);
 
                     // check literals
-                    for (String p : parts) {
-                        if (p.startsWith("='")) {
-                            LITTAB.add(new Literal(p, -1));
+                    int literal = -1;
+                    for (int t = 0; t < count; t++) {
+                        if (ends[t] - starts[t] >= 2 && b[starts[t]] == '=' && b[starts[t] + 1] == '\'') {
+                            literal = LITTAB.add(b, starts[t], ends[t]);
                         }
                     }
 
+                    if (op >= 0) statement(b, m, op, literal);
                     LC++;
             }
+            if (metrics != null) metrics.line(op, System.nanoTime() - started);
         }
 
-        System.out.println("\nSYMBOL TABLE:");
-        for (Symbol s : SYMTAB)
-            System.out.println(s.name + "\t" + s.address);
+        private void tokenize(char[] b, int from, int to) {
+            count = 0;
+            int i = from;
+            while (true) {
+                while (i < to && separator(b[i])) i++;
+                if (i == to) return;
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = i;
+                while (i < to && !separator(b[i])) i++;
+                ends[count++] = i;
+            }
+        }
 
-        System.out.println("\nLITERAL TABLE:");
-        for (Literal l : LITTAB)
-            System.out.println(l.value + "\t" + l.address);
+        private static boolean separator(char c) {
+            return c == ' ' || c == '\t' || c == ',' || c == '\r';
+        }
 
-        System.out.println("\nPOOL TABLE:");
-        for (int p : POOLTAB)
-            System.out.println(p);
+        static final int UNDEFINED = Integer.MIN_VALUE;
+
+        // Value of terms joined by + and - in b[from, to), spaces allowed; a term
+        // is a decimal number, a defined symbol, or * for the current LC.
+        // UNDEFINED if a symbol is not defined yet.
+        private int expression(char[] b, int from, int to) {
+            int value = 0, sign = 1, i = from;
+            while (true) {
+                while (i < to && separator(b[i])) i++;
+                int s = i;
+                while (i < to && b[i] != '+' && b[i] != '-' && !separator(b[i])) i++;
+                if (s == i) throw new IllegalArgumentException("bad expression: " + new String(b, from, to - from));
+                int term;
+                if (b[s] == '*' && i == s + 1) {
+                    term = LC;
+                } else if (b[s] >= '0' && b[s] <= '9') {
+                    term = parse(b, s, i);
+                } else {
+                    Symbol symbol = tables.SYMTAB.get(b, s, i);
+                    if (symbol == null) return UNDEFINED;
+                    term = symbol.address;
+                }
+                value += sign * term;
+                while (i < to && separator(b[i])) i++;
+                if (i == to) return value;
+                sign = b[i++] == '-' ? -1 : 1;
+            }
+        }
+
+        // One record for the statement whose mnemonic is token m: a register or
+        // condition code if present, then a literal, constant or symbol[+offset].
+        // Symbol operands are entered in SYMTAB even without an IcWriter, so the
+        // linker can tell external references from local ones.
+        private void statement(char[] b, int m, int op, int literal) {
+            Opcode o = OPCODES.get(op);
+            int t = m + 1;
+            NameIndex codes = firstOperand(o);
+            int register = codes != null && t < count ? Math.max(0, codes.get(b, starts[t], ends[t])) : 0;
+            if (register > 0) t++;
+            byte kind = NONE;
+            int operand = 0, offset = 0;
+            if (t < count) {
+                int s = starts[t], e = ends[t];
+                if (b[s] == '=') {
+                    kind = LITERAL;
+                    operand = literal;
+                } else if (b[s] == '\'') {
+                    kind = CONSTANT;
+                    operand = parse(b, s + 1, b[e - 1] == '\'' && e - s > 1 ? e - 1 : e);
+                } else if (b[s] == '-' || b[s] == '+' || b[s] >= '0' && b[s] <= '9') {
+                    kind = CONSTANT;
+                    operand = parse(b, s, e);
+                } else {
+                    int plus = s;
+                    while (plus < e && b[plus] != '+') plus++;
+                    kind = SYMBOL;
+                    operand = tables.SYMTAB.reference(b, s, plus);
+                    offset = plus < e ? parse(b, plus + 1, e) : 0;
+                }
+            }
+            byte type = o.type.equals("IS") ? IS : o.type.equals("AD") ? AD : DL;
+            if (ic != null) ic.emit(type == AD ? -1 : LC, type, o.code, register, kind, operand, offset);
+        }
+
+        private int need(char[] b, int token) {
+            if (token >= count) {
+                throw new IllegalArgumentException("missing operand in: " + new String(b, starts[0], ends[count - 1] - starts[0]));
+            }
+            return token;
+        }
+
+        private int number(char[] b, int token) {
+            need(b, token);
+            return parse(b, starts[token], ends[token]);
+        }
+
+        // Decimal integer in b[from, to), optionally signed
+        static int parse(char[] b, int from, int to) {
+            int i = from < to && (b[from] == '-' || b[from] == '+') ? from + 1 : from;
+            if (i == to) throw new NumberFormatException("For input string: \"" + new String(b, from, to - from) + "\"");
+            int value = 0;
+            for (; i < to; i++) {
+                int digit = b[i] - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException("For input string: \"" + new String(b, from, to - from) + "\"");
+                value = Math.addExact(Math.multiplyExact(value, 10), digit);
+            }
+            return b[from] == '-' ? -value : value;
+        }
+    }
+
+    static volatile int benchSink; // keeps pass-one results observable to the JIT
+
+    // Pass-one throughput and allocation per line on generated sources, after
+    // warmup, from memory and from a temporary file; source generation is
+    // outside the timed region. A quick look only: bench/ has the JMH benchmark
+    // (PassOneBenchmark) to compare changes with.
+    static void runBench(String[] sizes) throws IOException {
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long thread = Thread.currentThread().getId();
+
+        System.out.printf("%10s | %14s %10s | %14s %10s\n", "Lines", "lines/sec", "B/line", "file lines/sec", "MB/sec");
+        System.out.println("----------------------------------------------------------------");
+        Path file = Files.createTempFile("passone", ".asm");
+        try {
+            for (String size : sizes) {
+                String[] code = benchSource(Integer.parseInt(size));
+                Files.write(file, Arrays.asList(code));
+                for (int i = 0; i < 3; i++) benchSink += passOne(code).SYMTAB.size() + passOne(file).SYMTAB.size();
+                int iterations = 5;
+                long elapsed = 0, allocated = 0, fileElapsed = 0;
+                for (int i = 0; i < iterations; i++) {
+                    long bytes = allocation == null ? 0 : allocation.getThreadAllocatedBytes(thread);
+                    long start = System.nanoTime();
+                    benchSink += passOne(code).SYMTAB.size();
+                    elapsed += System.nanoTime() - start;
+                    if (allocation != null) allocated += allocation.getThreadAllocatedBytes(thread) - bytes;
+                    start = System.nanoTime();
+                    benchSink += passOne(file).SYMTAB.size();
+                    fileElapsed += System.nanoTime() - start;
+                }
+                System.out.printf("%10d | %14.0f %10s | %14.0f %10.1f\n", code.length,
+                        code.length * iterations * 1e9 / Math.max(1, elapsed),
+                        allocation == null ? "n/a" : String.format("%.1f", allocated / (double) iterations / code.length),
+                        code.length * iterations * 1e9 / Math.max(1, fileElapsed),
+                        Files.size(file) * iterations * 1e3 / Math.max(1, fileElapsed));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Labelled instructions, literals, storage and an LTORG every 64 lines
+    static String[] benchSource(int lines) {
+        String[] code = new String[lines];
+        code[0] = "START 100";
+        for (int i = 1; i < lines - 1; i++) {
+            switch (i % 4) {
+                case 0: code[i] = i % 64 == 0 ? "LTORG" : "ADD AREG, C"; break;
+                case 1: code[i] = "L" + i + " MOVER AREG, B"; break;
+                case 2: code[i] = "MOVEM AREG, ='" + i + "'"; break;
+                default: code[i] = "S" + i + " DC '" + (i % 100) + "'";
+            }
+        }
+        code[lines - 1] = "END";
+        return code;
     }
 }
@@ -0,0 +1,39 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Pass one over an in-memory generated source, as PassOneAssembler --bench
+// times it. Divide the score by lines for lines/sec.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class PassOneBenchmark {
+    @Param({"1000", "100000"})
+    public int lines;
+
+    private String[] code;
+
+    @Setup
+    public void generate() {
+        code = PassOneAssembler.benchSource(lines);
+    }
+
+    @Benchmark
+    public Object passOne() {
+        return PassOneAssembler.passOne(code);
+    }
+}
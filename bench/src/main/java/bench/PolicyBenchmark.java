@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One replay of a seeded trace through a fresh policy per operation, as
+// PageReplacementSummary --bench times it; OPT includes its next-use index.
+// Divide the score by length for references/sec.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class PolicyBenchmark {
+    @Param({"FIFO", "LRU", "CLOCK", "OPT", "LFU", "2Q", "ARC", "W-TINYLFU"})
+    public String policy;
+
+    @Param({"UNIFORM", "ZIPF", "LOOP"})
+    public String dist;
+
+    @Param({"100000"})
+    public int length;
+
+    @Param({"64", "4096"})
+    public int frames;
+
+    @Param({"65536"})
+    public int pages;
+
+    @Param({"false"})
+    public boolean offHeap;
+
+    private int[] refs;
+
+    @Setup
+    public void generate() {
+        refs = PageReplacementSummary.benchTrace(dist, length, pages, 42);
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        return PageReplacementSummary.benchReplay(policy, refs, null, frames, offHeap);
+    }
+}
@@ -1,8 +1,27 @@
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 class Macro { // 'class' not 'Class'
     String name;
     int mdtIndex;
+    long calls; // counted only while MacroMetrics.on
 
     Macro(String name, int mdtIndex) {
         this.name = name;
@@ -10,12 +29,472 @@ class Macro { // 'class' not 'Class'
     }
 }
 
+// One compiled MDT line: literal text with positional parameter slots cut out
+class Template {
+    final char[] text;
+    final int[] cuts;   // offset in text where each slot goes
+    final int[] slots;  // 1-based positional parameter for each cut
+
+    Template(char[] text, int[] cuts, int[] slots) {
+        this.text = text;
+        this.cuts = cuts;
+        this.slots = slots;
+    }
+
+    // Scan a body line once; only a whole &NAME that is in the ALA becomes a slot
+    static Template compile(String line, Map<String, Integer> ala) {
+        StringBuilder text = new StringBuilder(line.length());
+        int[] cuts = new int[4], slots = new int[4];
+        int count = 0, i = 0, n = line.length();
+        while (i < n) {
+            char c = line.charAt(i);
+            if (c != '&') {
+                text.append(c);
+                i++;
+                continue;
+            }
+            int j = i + 1;
+            while (j < n && (Character.isLetterOrDigit(line.charAt(j)) || line.charAt(j) == '_')) j++;
+            Integer pos = ala.get(line.substring(i, j));
+            if (pos == null) {
+                text.append(line, i, j);
+            } else {
+                if (count == cuts.length) {
+                    cuts = Arrays.copyOf(cuts, count * 2);
+                    slots = Arrays.copyOf(slots, count * 2);
+                }
+                cuts[count] = text.length();
+                slots[count++] = pos;
+            }
+            i = j;
+        }
+        char[] chars = new char[text.length()];
+        text.getChars(0, chars.length, chars, 0);
+        return new Template(chars, Arrays.copyOf(cuts, count), Arrays.copyOf(slots, count));
+    }
+
+    // The MEND closing every definition in the MDT
+    boolean isMend() {
+        return cuts.length == 0 && text.length == 4 && text[0] == 'M' && text[1] == 'E' && text[2] == 'N' && text[3] == 'D';
+    }
+
+    // MDT listing form, with #n in each slot
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(text.length + 2 * cuts.length);
+        int at = 0;
+        for (int k = 0; k < cuts.length; k++) {
+            sb.append(text, at, cuts[k] - at).append('#').append(slots[k]);
+            at = cuts[k];
+        }
+        return sb.append(text, at, text.length - at).toString();
+    }
+}
+
+// Receives each output line of pass two as a range of a reused buffer
+interface LineSink {
+    void line(char[] b, int from, int to);
+}
+
+// Pass-two engine: fills template slots from the call's actuals into one reused buffer
+class Expander {
+    private final Map<String, Macro> names = new HashMap<>();
+    private final List<Template> mdt;
+    private final List<MacroLibrary> libraries;
+    private char[] buf = new char[256];
+    private int[] starts = new int[64], ends = new int[64];
+    private char[] call = new char[256];
+    long written; // output lines, counted only while MacroMetrics.on
+
+    Expander(List<Macro> mnt, List<Template> mdt, List<MacroLibrary> libraries) {
+        this.mdt = mdt;
+        this.libraries = libraries;
+        for (Macro m : mnt) names.put(m.name, m);
+    }
+
+    // The program's own definition, else the first library defining the name,
+    // whose templates are decoded into the MDT on first call
+    private Macro find(String name) {
+        Macro m = names.get(name);
+        for (int i = 0; m == null && i < libraries.size(); i++) {
+            m = libraries.get(i).load(name, mdt);
+            if (m != null) names.put(name, m);
+        }
+        return m;
+    }
+
+    // Every macro called or defined so far
+    Collection<Macro> macros() {
+        return names.values();
+    }
+
+    // Expand a call line, or pass any other line through unchanged
+    void line(String line, LineSink out) {
+        int n = line.length();
+        if (call.length < n) call = new char[Math.max(n, call.length * 2)];
+        line.getChars(0, n, call, 0);
+        int count = 0, i = 0;
+        while (i < n) {
+            while (i < n && (call[i] <= ' ' || call[i] == ',')) i++;
+            if (i == n) break;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = i;
+            while (i < n && call[i] > ' ' && call[i] != ',') i++;
+            ends[count++] = i;
+        }
+        Macro m = count == 0 ? null : find(line.substring(starts[0], ends[0]));
+        if (m == null) {
+            if (MacroMetrics.on) written++;
+            out.line(call, 0, n);
+            return;
+        }
+        if (MacroMetrics.on) m.calls++;
+        for (int k = m.mdtIndex - 1; ; k++) {
+            Template t = mdt.get(k);
+            if (t.isMend()) return;
+            if (MacroMetrics.on) written++;
+            int len = 0, at = 0;
+            for (int s = 0; s < t.cuts.length; s++) {
+                len = append(len, t.text, at, t.cuts[s]);
+                int arg = t.slots[s];
+                if (arg < count) len = append(len, call, starts[arg], ends[arg]);
+                at = t.cuts[s];
+            }
+            len = append(len, t.text, at, t.text.length);
+            out.line(buf, 0, len);
+        }
+    }
+
+    private int append(int len, char[] src, int from, int to) {
+        int need = len + to - from;
+        if (need > buf.length) buf = Arrays.copyOf(buf, Math.max(need, buf.length * 2));
+        System.arraycopy(src, from, buf, len, to - from);
+        return need;
+    }
+
+}
+
+// A macro library file backed by a memory-mapped cache of its compiled MNT and
+// MDT in a sibling .mlc file, keyed by the SHA-256 of the source. An unchanged
+// library is never parsed: names are found by probing the cache's hash slots in
+// place, and a macro's templates are decoded only when it is first called.
+class MacroLibrary {
+    static final int MAGIC = 0x324C4D50; // "PML2"
+    static final Template MEND = new Template("MEND".toCharArray(), new int[0], new int[0]);
+
+    final Path source;
+    final int macros;
+    final boolean rebuilt;
+    private final MappedByteBuffer cache;
+    private final int mask;
+    long lookups, probes; // counted only while MacroMetrics.on
+    int maxProbe;
+
+    private MacroLibrary(Path source, MappedByteBuffer cache, boolean rebuilt) {
+        this.source = source;
+        this.cache = cache;
+        this.rebuilt = rebuilt;
+        macros = cache.getInt(36);
+        mask = cache.getInt(40) - 1;
+    }
+
+    // Map the library's cache, rebuilding it first if it is missing or stale
+    static MacroLibrary open(Path source) throws IOException {
+        byte[] key = sha256(source);
+        Path path = source.resolveSibling(source.getFileName() + ".mlc");
+        MappedByteBuffer cache = map(path);
+        boolean rebuilt = cache == null || cache.capacity() < 44 || cache.getInt(0) != MAGIC
+                || !cache.slice(4, 32).equals(ByteBuffer.wrap(key));
+        if (rebuilt) {
+            write(source, key, path);
+            cache = map(path);
+        }
+        return new MacroLibrary(source, cache, rebuilt);
+    }
+
+    // The macro called name appended to mdt, or null if this library lacks it
+    Macro load(String name, List<Template> mdt) {
+        int h = hash(name);
+        for (int slot = h & mask, probe = 1; ; slot = (slot + 1) & mask, probe++) {
+            int at = 44 + 8 * slot, offset = cache.getInt(at + 4);
+            boolean found = offset != 0 && cache.getInt(at) == h && matches(offset, name);
+            if (offset != 0 && !found) continue;
+            if (MacroMetrics.on) {
+                lookups++;
+                probes += probe;
+                maxProbe = Math.max(maxProbe, probe);
+            }
+            return found ? decode(offset + 4 + name.length(), name, mdt) : null;
+        }
+    }
+
+    private boolean matches(int offset, String name) {
+        if (cache.getInt(offset) != name.length()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if ((cache.get(offset + 4 + i) & 0xFF) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private Macro decode(int at, String name, List<Template> mdt) {
+        Macro m = new Macro(name, mdt.size() + 1);
+        ByteBuffer in = cache.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(at);
+        for (int lines = in.getInt(); lines > 0; lines--) {
+            char[] text = new char[in.getInt()];
+            for (int i = 0; i < text.length; i++) text[i] = (char) (in.get() & 0xFF);
+            int[] cuts = new int[in.getInt()], slots = new int[cuts.length];
+            for (int i = 0; i < cuts.length; i++) cuts[i] = in.getInt();
+            for (int i = 0; i < slots.length; i++) slots[i] = in.getInt();
+            mdt.add(new Template(text, cuts, slots));
+        }
+        mdt.add(MEND);
+        return m;
+    }
+
+    // String.hashCode mixed so that names like M1, M2, ... do not form probe runs
+    static int hash(String name) {
+        int h = name.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    static byte[] sha256(Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MappedByteBuffer map(Path path) throws IOException {
+        if (!Files.exists(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer cache = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            cache.order(ByteOrder.LITTLE_ENDIAN);
+            return cache;
+        }
+    }
+
+    // Cache file, little-endian: magic, SHA-256 of the source, macro count, slot
+    // count (a power of two, at least twice the macros), the slots as name hash
+    // and record offset (0 when empty), then per macro its ASCII name, line
+    // count and per line the text, cut count, cuts and slots. A later definition
+    // of a name replaces an earlier one. Written to a temporary file and moved
+    // into place, so a concurrent run sees either the old cache or the new one.
+    static void write(Path source, byte[] key, Path path) throws IOException {
+        List<Macro> mnt = new ArrayList<>();
+        List<Template> mdt = new ArrayList<>();
+        PassOneMacroProcessor.passOne(
+                Files.readAllLines(source, StandardCharsets.ISO_8859_1).toArray(new String[0]), mnt, mdt);
+        Map<String, Macro> byName = new LinkedHashMap<>();
+        for (Macro m : mnt) byName.put(m.name, m);
+
+        int capacity = Integer.highestOneBit(Math.max(1, byName.size()) * 2 - 1) * 2;
+        long size = 44 + 8L * capacity;
+        for (Macro m : byName.values()) {
+            size += 8 + m.name.length();
+            for (int k = m.mdtIndex - 1; !mdt.get(k).isMend(); k++) {
+                size += 8 + mdt.get(k).text.length + 8L * mdt.get(k).cuts.length;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(size)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).put(key).putInt(byName.size()).putInt(capacity);
+        out.position(44 + 8 * capacity);
+        for (Macro m : byName.values()) {
+            int h = hash(m.name), slot = h & (capacity - 1);
+            while (out.getInt(44 + 8 * slot + 4) != 0) slot = (slot + 1) & (capacity - 1);
+            out.putInt(44 + 8 * slot, h).putInt(44 + 8 * slot + 4, out.position());
+            putText(out, m.name.toCharArray());
+            int lines = out.position();
+            out.putInt(0);
+            for (int k = m.mdtIndex - 1; !mdt.get(k).isMend(); k++) {
+                Template t = mdt.get(k);
+                putText(out, t.text);
+                out.putInt(t.cuts.length);
+                for (int c : t.cuts) out.putInt(c);
+                for (int v : t.slots) out.putInt(v);
+                out.putInt(lines, out.getInt(lines) + 1);
+            }
+        }
+        out.flip();
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) channel.write(out);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putText(ByteBuffer out, char[] text) {
+        out.putInt(text.length);
+        for (char c : text) out.put((byte) c);
+    }
+}
+
+// Macro processor counters: lines and time per pass, MNT and MDT sizes, probe
+// lengths in the library caches and calls per macro. Kept only when --metrics
+// is given or a JFR recording with these events is running at startup, so an
+// ordinary run pays one boolean check per line.
+class MacroMetrics {
+    static boolean on;
+    static int passOneLines, passTwoLines;
+    static long passOneNanos, passTwoNanos, written;
+    static Collection<Macro> macros = Collections.emptyList();
+
+    static void passOne(MacroPassEvent event, int lines, long nanos) {
+        passOneLines = lines;
+        passOneNanos = nanos;
+        commit(event, "I", lines, 0);
+    }
+
+    static void passTwo(MacroPassEvent event, int lines, long nanos, Expander expander) {
+        passTwoLines = lines;
+        passTwoNanos = nanos;
+        written = expander.written;
+        macros = expander.macros();
+        commit(event, "II", lines, written);
+        for (Macro m : macros) {
+            if (m.calls == 0) continue;
+            MacroCallsEvent e = new MacroCallsEvent();
+            e.name = m.name;
+            e.calls = m.calls;
+            e.commit();
+        }
+    }
+
+    private static void commit(MacroPassEvent event, String pass, int lines, long written) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.pass = pass;
+        event.lines = lines;
+        event.written = written;
+        event.mnt = PassOneMacroProcessor.MNT.size();
+        event.mdt = PassOneMacroProcessor.MDT.size();
+        event.commit();
+    }
+
+    static long rate(long lines, long nanos) {
+        return nanos == 0 ? 0 : Math.round(lines * 1e9 / nanos);
+    }
+
+    // The run's counters as one JSON document
+    static void write(Path path) throws IOException {
+        StringBuilder json = new StringBuilder("{\"passOne\": {\"lines\": ").append(passOneLines)
+                .append(", \"linesPerSecond\": ").append(rate(passOneLines, passOneNanos))
+                .append("},\n \"passTwo\": {\"lines\": ").append(passTwoLines)
+                .append(", \"outputLines\": ").append(written)
+                .append(", \"linesPerSecond\": ").append(rate(passTwoLines, passTwoNanos))
+                .append("},\n \"sizes\": {\"MNT\": ").append(PassOneMacroProcessor.MNT.size())
+                .append(", \"MDT\": ").append(PassOneMacroProcessor.MDT.size())
+                .append("},\n \"libraries\": [");
+        String separator = "";
+        for (MacroLibrary l : PassOneMacroProcessor.LIBRARIES) {
+            json.append(separator).append("{\"source\": ");
+            string(json, l.source.toString());
+            json.append(", \"macros\": ").append(l.macros).append(", \"lookups\": ").append(l.lookups)
+                    .append(", \"meanProbe\": ")
+                    .append(l.lookups == 0 ? "0" : String.format(Locale.ROOT, "%.3f", (double) l.probes / l.lookups))
+                    .append(", \"maxProbe\": ").append(l.maxProbe).append('}');
+            separator = ", ";
+        }
+        json.append("],\n \"expansions\": {");
+        separator = "";
+        for (Macro m : macros) {
+            if (m.calls == 0) continue;
+            string(json.append(separator), m.name);
+            json.append(": ").append(m.calls);
+            separator = ", ";
+        }
+        Files.writeString(path, json.append("}}\n"));
+    }
+
+    static void string(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < ' ') json.append(String.format("\\u%04x", (int) c));
+            else json.append(c);
+        }
+        json.append('"');
+    }
+}
+
+@Name("macro.Pass")
+@Label("Macro Pass")
+@Category("Macro Processor")
+class MacroPassEvent extends Event {
+    @Label("Pass") String pass;
+    @Label("Input Lines") int lines;
+    @Label("Output Lines") long written;
+    @Label("MNT Size") int mnt;
+    @Label("MDT Size") int mdt;
+}
+
+@Name("macro.Calls")
+@Label("Calls per Macro")
+@Category("Macro Processor")
+class MacroCallsEvent extends Event {
+    @Label("Macro") String name;
+    @Label("Calls") long calls;
+}
+
+// Packs expanded lines into '\n'-terminated chunks for a consumer thread; a
+// chunk is only refilled after the consumer hands it back, so a full set of
+// chunks in flight blocks the producer
+class ChunkSink implements LineSink {
+    static final CharBuffer END = CharBuffer.allocate(0);
+    private final BlockingQueue<CharBuffer> full, free;
+    private CharBuffer chunk;
+
+    ChunkSink(BlockingQueue<CharBuffer> full, BlockingQueue<CharBuffer> free) throws InterruptedException {
+        this.full = full;
+        this.free = free;
+        chunk = free.take();
+    }
+
+    @Override
+    public void line(char[] b, int from, int to) {
+        int n = to - from + 1;
+        if (chunk.remaining() < n) {
+            flush();
+            if (chunk.capacity() < n) chunk = CharBuffer.allocate(n); // a line longer than any chunk
+        }
+        chunk.put(b, from, to - from).put('\n');
+    }
+
+    void flush() {
+        chunk.flip();
+        if (!chunk.hasRemaining()) {
+            chunk.clear();
+            return;
+        }
+        try {
+            full.put(chunk);
+            chunk = free.take();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        chunk.clear();
+    }
+}
+
 public class PassOneMacroProcessor { // 'class' not 'Class'
+    static final int CHUNKS = 4, CHUNK_SIZE = 1 << 16;
+
     static List<Macro> MNT = new ArrayList<>();
-    static List<String> MDT = new ArrayList<>();
+    static List<Template> MDT = new ArrayList<>();
+    static List<MacroLibrary> LIBRARIES = new ArrayList<>();
     static Map<String, Integer> ALA = new LinkedHashMap<>();
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
 
         // 🔹 Input Program embedded inside the code
         String[] input = {
@@ -36,7 +515,124 @@ public class PassOneMacroProcessor { // 'class' not 'Class'
             "END"
         };
 
-        int i = 0, mdtc = 0;
+        Path metrics = null;
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--metrics")) metrics = Paths.get(args[i + 1]);
+        }
+        MacroMetrics.on = metrics != null || new MacroPassEvent().isEnabled();
+
+        boolean expand = false, assemble = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--expand")) expand = true;
+            else if (args[i].equals("--metrics")) i++;
+            else if (args[i].equals("--assemble")) assemble = true;
+            else if (args[i].equals("--library")) {
+                // --library lib.asm: macros called but not defined by the program, cached in lib.asm.mlc
+                long started = System.nanoTime();
+                MacroLibrary library = MacroLibrary.open(Paths.get(args[++i]));
+                LIBRARIES.add(library);
+                System.err.printf("library %s: %d macros, %s in %d ms%n", library.source, library.macros,
+                        library.rebuilt ? "rebuilt" : "cached", (System.nanoTime() - started) / 1_000_000);
+            }
+            else input = Files.readAllLines(Paths.get(args[i]), StandardCharsets.ISO_8859_1).toArray(new String[0]);
+        }
+
+        passOne(input);
+
+        // 🔹 Display the Tables
+        System.out.println("=== PASS-I OUTPUT ===\n");
+
+        System.out.println("MACRO NAME TABLE (MNT):");
+        System.out.println("Index\tMacro Name\tMDT Index");
+        for (int j = 0; j < MNT.size(); j++) {
+            Macro m = MNT.get(j);
+            System.out.println((j + 1) + "\t" + m.name + "\t\t" + m.mdtIndex);
+        }
+
+        System.out.println("\nMACRO DEFINITION TABLE (MDT):");
+        for (int j = 0; j < MDT.size(); j++) {
+            System.out.println((j + 1) + "\t" + MDT.get(j));
+        }
+
+        if (assemble) {
+            // --assemble: expanded lines go straight into the assembler's pass one
+            System.out.println("\n=== ASSEMBLER PASS-I OUTPUT ===");
+            assemble(input);
+        } else if (expand) {
+            System.out.println("\n=== PASS-II OUTPUT ===\n");
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+            passTwo(input, (b, from, to) -> {
+                try {
+                    out.write(b, from, to - from);
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+        }
+
+        // --metrics out.json: the run's counters as JSON
+        if (metrics != null) MacroMetrics.write(metrics);
+    }
+
+    // Pass two on its own thread, streaming into PassOneAssembler's pass one on
+    // this one through CHUNKS buffers of CHUNK_SIZE chars, so memory does not grow
+    // with the expanded program. The assembler is found on the class path at run
+    // time (java -cp <assembler classes> p1.java --assemble) so that this file
+    // still runs on its own.
+    static void assemble(String[] input) throws Exception {
+        Method passOne, print;
+        try {
+            Class<?> assembler = Class.forName("PassOneAssembler");
+            passOne = assembler.getDeclaredMethod("passOne", BlockingQueue.class, BlockingQueue.class);
+            print = assembler.getDeclaredMethod("print", passOne.getReturnType());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("--assemble needs the compiled PassOneAssembler on the class path", e);
+        }
+        passOne.setAccessible(true);
+        print.setAccessible(true);
+
+        BlockingQueue<CharBuffer> full = new ArrayBlockingQueue<>(CHUNKS + 1);
+        BlockingQueue<CharBuffer> free = new ArrayBlockingQueue<>(CHUNKS);
+        for (int i = 0; i < CHUNKS; i++) free.add(CharBuffer.allocate(CHUNK_SIZE));
+        Throwable[] failure = new Throwable[1];
+        Thread expander = new Thread(() -> {
+            try {
+                ChunkSink sink = new ChunkSink(full, free);
+                passTwo(input, sink);
+                sink.flush();
+            } catch (Throwable e) {
+                failure[0] = e;
+            } finally {
+                full.add(ChunkSink.END); // room is always left for the end marker
+            }
+        }, "macro-expander");
+        expander.setDaemon(true); // never outlives a failed assembler
+        expander.start();
+
+        Object tables;
+        try {
+            tables = passOne.invoke(null, full, free);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        expander.join();
+        if (failure[0] != null) throw new IllegalStateException("macro expansion failed", failure[0]);
+        print.invoke(null, tables);
+    }
+
+    // Fill MNT and MDT, compiling each body line into a template
+    static void passOne(String[] input) {
+        MacroPassEvent event = new MacroPassEvent();
+        event.begin();
+        long started = System.nanoTime();
+        passOne(input, MNT, MDT);
+        if (MacroMetrics.on) MacroMetrics.passOne(event, input.length, System.nanoTime() - started);
+    }
+
+    static void passOne(String[] input, List<Macro> mnt, List<Template> mdt) {
+        int i = 0, mdtc = mdt.size();
 
         while (i < input.length) {
             String line = input[i].trim();
@@ -45,11 +641,11 @@ public class PassOneMacroProcessor { // 'class' not 'Class'
             if (line.equalsIgnoreCase("MACRO")) {
                 i++;
                 String header = input[i].trim();
-                String[] parts = header.split("\\s+");
+                String[] parts = header.split("[\\s,]+");
                 String macroName = parts[0];
 
                 // Add macro to MNT
-                MNT.add(new Macro(macroName, mdtc + 1));
+                mnt.add(new Macro(macroName, mdtc + 1));
 
                 // Build ALA for this macro
                 ALA.clear();
@@ -60,42 +656,34 @@ public class PassOneMacroProcessor { // 'class' not 'Class'
                 // Read macro body until MEND
                 i++;
                 while (!input[i].trim().equalsIgnoreCase("MEND")) {
-                    String temp = input[i].trim();
-
-                    // Replace arguments with positional notation (#1, #2, ...)
-                    for (Map.Entry<String, Integer> entry : ALA.entrySet()) {
-                        String arg = entry.getKey();
-                        int pos = entry.getValue();
-                        if (temp.contains(arg)) {
-                            temp = temp.replace(arg, "#" + pos);
-                        }
-                    }
-
-                    MDT.add(temp);
+                    // Arguments become positional slots (#1, #2, ...)
+                    mdt.add(Template.compile(input[i].trim(), ALA));
                     mdtc++;
                     i++;
                 }
 
                 // Add MEND to MDT
-                MDT.add("MEND");
+                mdt.add(Template.compile("MEND", ALA));
                 mdtc++;
             }
             i++;
         }
+    }
 
-        // 🔹 Display the Tables
-        System.out.println("=== PASS-I OUTPUT ===\n");
-
-        System.out.println("MACRO NAME TABLE (MNT):");
-        System.out.println("Index\tMacro Name\tMDT Index");
-        for (int j = 0; j < MNT.size(); j++) {
-            Macro m = MNT.get(j);
-            System.out.println((j + 1) + "\t" + m.name + "\t\t" + m.mdtIndex);
-        }
-
-        System.out.println("\nMACRO DEFINITION TABLE (MDT):");
-        for (int j = 0; j < MDT.size(); j++) {
-            System.out.println((j + 1) + "\t" + MDT.get(j));
+    // Copy the program without its definitions, expanding each macro call
+    static void passTwo(String[] input, LineSink out) {
+        Expander expander = new Expander(MNT, MDT, LIBRARIES);
+        MacroPassEvent event = new MacroPassEvent();
+        event.begin();
+        long started = System.nanoTime();
+        for (int i = 0; i < input.length; i++) {
+            String line = input[i].trim();
+            if (line.equalsIgnoreCase("MACRO")) {
+                while (!input[i].trim().equalsIgnoreCase("MEND")) i++;
+                continue;
+            }
+            expander.line(line, out);
         }
+        if (MacroMetrics.on) MacroMetrics.passTwo(event, input.length, System.nanoTime() - started, expander);
     }
 }
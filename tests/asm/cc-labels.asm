@@ -0,0 +1,12 @@
+START 200
+READ LT
+MOVER AREG, EQ
+COMP AREG, LT
+BC GT, EQ
+BC LT, GT
+PRINT EQ
+STOP
+LT DS 1
+EQ DC '5'
+GT DS 1
+END
@@ -0,0 +1,7 @@
+START 100
+MAIN MOVER AREG, X
+ADD AREG, ='1'
+PRINT Y
+LTORG
+Z DC '3'
+END
@@ -0,0 +1,6 @@
+START 200
+X DC '5'
+Y DS 2
+MOVER BREG, MISSING
+Z DC '1'
+END
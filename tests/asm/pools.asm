@@ -0,0 +1,19 @@
+START 200
+LOOP MOVER AREG, ='5'
+ADD BREG, ='5'
+SUB CREG, ='7'
+MOVEM AREG, COUNT
+LTORG
+NEXT MOVER AREG, ='5'
+MULT AREG, ='7'
+BC ANY, LOOP
+ORIGIN *+2
+HALF EQU NEXT+1
+BACK EQU HALF-2
+COUNT DS 2
+LIMIT DC '10'
+PRINT LIMIT
+ORIGIN LOOP+20
+TOP DC '1'
+STOP
+END
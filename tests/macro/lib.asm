@@ -0,0 +1,13 @@
+MACRO
+CLEAR &R
+SUB &R, &R
+MEND
+MACRO
+COPY &FROM, &TO, &R
+MOVER &R, &FROM
+MOVEM &R, &TO
+MEND
+MACRO
+INCR &X, &Y, &R
+PRINT &X
+MEND
@@ -0,0 +1,22 @@
+START 100
+MACRO
+INCR &X, &Y, &R
+MOVER &R, &X
+ADD &R, ='1'
+MOVEM &R, &Y
+MEND
+MACRO
+SWAP &A &B
+MOVER AREG, &A
+MOVER BREG, &B
+MOVEM AREG, &B
+MOVEM BREG, &A
+MEND
+INCR N1, N2, AREG
+SWAP N1 N2
+ADD CREG, N2
+LTORG
+INCR N2, N1, BREG
+N1 DC '4'
+N2 DS 1
+END
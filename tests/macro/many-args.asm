@@ -0,0 +1,9 @@
+START 100
+MACRO
+BIG &A0, &A1, &A2, &A3, &A4, &A5, &A6, &A7, &A8, &A9, &A10, &A11, &A12, &A13, &A14, &A15, &A16, &A17, &A18, &A19, &A20, &A21, &A22, &A23, &A24, &A25, &A26, &A27, &A28, &A29, &A30, &A31, &A32, &A33, &A34, &A35, &A36, &A37, &A38, &A39, &A40, &A41, &A42, &A43, &A44, &A45, &A46, &A47, &A48, &A49, &A50, &A51, &A52, &A53, &A54, &A55, &A56, &A57, &A58, &A59, &A60, &A61, &A62, &A63, &A64, &A65, &A66, &A67, &A68, &A69
+PRINT &A0
+PRINT &A68
+PRINT &A69
+MEND
+BIG X0, X1, X2, X3, X4, X5, X6, X7, X8, X9, X10, X11, X12, X13, X14, X15, X16, X17, X18, X19, X20, X21, X22, X23, X24, X25, X26, X27, X28, X29, X30, X31, X32, X33, X34, X35, X36, X37, X38, X39, X40, X41, X42, X43, X44, X45, X46, X47, X48, X49, X50, X51, X52, X53, X54, X55, X56, X57, X58, X59, X60, X61, X62, X63, X64, X65, X66, X67, X68, X69
+END
@@ -0,0 +1,13 @@
+START 100
+MACRO
+INCR &X, &Y, &R
+MOVER &R, &X
+ADD &R, ='1'
+MOVEM &R, &Y
+MEND
+CLEAR AREG
+COPY N1, N2, BREG
+INCR N2, N1, CREG
+N1 DC '4'
+N2 DS 1
+END
@@ -0,0 +1,78 @@
+#!/bin/sh
+# Regression checks: each program's output (stdout, stderr and exit status)
+# against the golden copy in tests/golden. Run from anywhere:
+#   sh tests/run.sh            compare
+#   sh tests/run.sh --update   rewrite the golden files from the current tree
+cd "$(dirname "$0")/.." || exit 2
+work=$(mktemp -d) || exit 2
+trap 'rm -rf "$work"' EXIT
+update=false
+[ "$1" = "--update" ] && update=true
+failed=0
+
+# check golden-name command...
+check() {
+    name=$1
+    shift
+    "$@" > "$work/raw.out" 2>&1
+    status=$?
+    # timings and the scratch directory differ run to run
+    sed -E -e 's/[0-9]+ ms/# ms/g' -e "s|$work|WORK|g" "$work/raw.out" > "$work/$name.out"
+    echo "exit $status" >> "$work/$name.out"
+    if $update; then
+        cp "$work/$name.out" "tests/golden/$name.out"
+        echo "updated $name"
+    elif diff -u "tests/golden/$name.out" "$work/$name.out"; then
+        echo "ok      $name"
+    else
+        echo "FAILED  $name"
+        failed=1
+    fi
+}
+
+# Assembler: built-in program, pools/ORIGIN/EQU, intermediate code and pass two,
+# incremental re-assembly (cold, unchanged, then after an edit), module linking
+check asm-builtin java PassOneAssembler.java
+check asm-pools java PassOneAssembler.java tests/asm/pools.asm
+java PassOneAssembler.java --ic "$work/pools" tests/asm/pools.asm > /dev/null
+check asm-pass-two java PassOneAssembler.java --pass-two "$work/pools"
+cp tests/asm/pools.asm "$work/edit.asm"
+check asm-incremental-cold java PassOneAssembler.java --incremental "$work/state" "$work/edit.asm"
+check asm-incremental-warm java PassOneAssembler.java --incremental "$work/state" "$work/edit.asm"
+sed 's/^COUNT DS 2$/COUNT DS 4/' tests/asm/pools.asm > "$work/edit.asm"
+check asm-incremental-edit java PassOneAssembler.java --incremental "$work/state" "$work/edit.asm"
+check asm-link java PassOneAssembler.java --link tests/asm/link-a.asm tests/asm/link-b.asm
+# labels named like condition codes are symbols outside BC's condition slot
+java PassOneAssembler.java --ic "$work/cc" tests/asm/cc-labels.asm > /dev/null
+check asm-cc-labels java PassOneAssembler.java --pass-two "$work/cc"
+
+# Macro processor: p1.java's first class is not its main class, so it runs
+# compiled, next to the assembler that --assemble loads from the class path
+mkdir "$work/p1"
+cp p1.java "$work/p1/PassOneMacroProcessor.java"
+cp PassOneAssembler.java "$work/p1/"
+javac -encoding UTF-8 -nowarn -d "$work/p1" "$work/p1"/*.java 2>&1 | grep -v '^Note:'
+check macro-builtin java -cp "$work/p1" PassOneMacroProcessor
+check macro-expand java -cp "$work/p1" PassOneMacroProcessor --expand tests/macro/macros.asm
+check macro-assemble java -cp "$work/p1" PassOneMacroProcessor --assemble tests/macro/macros.asm
+check macro-many-args java -cp "$work/p1" PassOneMacroProcessor --expand tests/macro/many-args.asm
+# the library cache is written next to the library, so use a scratch copy
+cp tests/macro/lib.asm "$work/lib.asm"
+check macro-library-cold java -cp "$work/p1" PassOneMacroProcessor --library "$work/lib.asm" --expand tests/macro/uses-lib.asm
+check macro-library-warm java -cp "$work/p1" PassOneMacroProcessor --library "$work/lib.asm" --expand tests/macro/uses-lib.asm
+
+# Page replacement: the two table front ends, which load the compiled summary
+# from the class path, the summary itself, and the randomized cross-check of
+# FIFO/LRU/OPT and the fault curve against the naive simulators
+mkdir "$work/page"
+cp PageFLO.java "$work/page/PageReplacementSummary.java"
+javac -nowarn -d "$work/page" "$work/page/PageReplacementSummary.java" 2>&1 | grep -v '^Note:'
+check page-fifo-lru java -cp "$work/page" PageFL.java
+check page-fifo-opt java -cp "$work/page" PageFO.java
+check page-missing-summary java PageFL.java
+check page-summary java PageFLO.java
+check page-trace-summary java PageFLO.java --trace tests/page/refs.txt --frames 3
+check page-processes-writes java PageFLO.java --processes 3 --allocation local --writes 0.25 --length 5000 --pages 32 --threads 1 --offheap
+check page-check java PageFLO.java --check
+
+exit $failed